@@ -0,0 +1,67 @@
+package lox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One benchmark per phase, each starting from the previous phase's output
+// made once in setup, so scanning, parsing and evaluation are measured
+// apart. Run through Main to get allocation rates alongside throughput.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhaseBenchmark {
+    @Param({"DEEP_EXPRESSIONS", "MANY_BLOCKS", "STRING_CONCATENATION", "LARGE_FILE"})
+    public Workload workload;
+
+    @Param({"20000"})
+    public int statements;
+
+    private String source;
+    private Object tokens;
+    private Object program;
+    private Object session;
+
+    @Setup
+    public void setUp() throws Throwable {
+        source = workload.generate(statements);
+        tokens = Phases.scan(source);
+        program = Phases.parse(tokens);
+    }
+
+    // Making a Session isn't part of evaluating, but one shouldn't build up
+    // state across iterations either.
+    @Setup(Level.Iteration)
+    public void newSession() throws Throwable {
+        session = Phases.session();
+    }
+
+    @Benchmark
+    public Object scan() throws Throwable {
+        return Phases.scan(source);
+    }
+
+    @Benchmark
+    public Object parse() throws Throwable {
+        return Phases.parse(tokens);
+    }
+
+    @Benchmark
+    public void evaluate() throws Throwable {
+        Phases.execute(session, program);
+    }
+}
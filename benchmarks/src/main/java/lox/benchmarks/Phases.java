@@ -0,0 +1,53 @@
+package lox.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// The interpreter's classes are in the default package, which can't be
+// imported from here, so its Phases are called through method handles.
+// Being static final, the handles are constants to the JIT.
+final class Phases {
+    private static final MethodHandle SCAN;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle SESSION;
+    private static final MethodHandle EXECUTE;
+    private static final MethodHandle RUN;
+
+    static {
+        try {
+            Class<?> phases = Class.forName("Phases");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            SCAN = lookup.findStatic(phases, "scan", MethodType.methodType(Object.class, String.class));
+            PARSE = lookup.findStatic(phases, "parse", MethodType.methodType(Object.class, Object.class));
+            SESSION = lookup.findStatic(phases, "session", MethodType.methodType(Object.class));
+            EXECUTE = lookup.findStatic(phases, "execute", MethodType.methodType(void.class, Object.class, Object.class));
+            RUN = lookup.findStatic(phases, "run", MethodType.methodType(void.class, String.class));
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private Phases() {
+    }
+
+    static Object scan(String source) throws Throwable {
+        return (Object)SCAN.invokeExact(source);
+    }
+
+    static Object parse(Object tokens) throws Throwable {
+        return (Object)PARSE.invokeExact(tokens);
+    }
+
+    static Object session() throws Throwable {
+        return (Object)SESSION.invokeExact();
+    }
+
+    static void execute(Object session, Object statements) throws Throwable {
+        EXECUTE.invokeExact(session, statements);
+    }
+
+    static void run(String source) throws Throwable {
+        RUN.invokeExact(source);
+    }
+}
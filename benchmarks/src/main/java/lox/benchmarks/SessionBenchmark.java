@@ -0,0 +1,36 @@
+package lox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Runs a small script in a new Session each operation, the way an embedder
+// would run many scripts at once. With nothing shared between sessions the
+// rate should grow with the number of threads, so compare runs with -t 1
+// and -t max.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionBenchmark {
+    private static final String SCRIPT =
+            "var sum = 0;\n" +
+            "var i = 0;\n" +
+            "while (i < 2000) {\n" +
+            "    if (i - (i / 3) * 3 < 1) sum = sum + i; else sum = sum - 1;\n" +
+            "    i = i + 1;\n" +
+            "}\n" +
+            "print sum;\n";
+
+    @Benchmark
+    public void script() throws Throwable {
+        Phases.run(SCRIPT);
+    }
+}
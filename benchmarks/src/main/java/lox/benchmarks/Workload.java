@@ -0,0 +1,81 @@
+package lox.benchmarks;
+
+// Synthetic Lox programs, each stressing one thing. Sizes are in top-level
+// statements, except for LARGE_FILE, which mixes all of them.
+public enum Workload {
+    // Expressions nested 64 levels deep in parentheses.
+    DEEP_EXPRESSIONS {
+        @Override
+        void append(StringBuilder source, int index) {
+            source.append("print ").append(nested(64, index)).append(";\n");
+        }
+    },
+
+    // Blocks nested 8 deep, each declaring a local from the one outside it.
+    MANY_BLOCKS {
+        @Override
+        void append(StringBuilder source, int index) {
+            for (int depth = 0; depth < 8; depth++) {
+                source.append("{ var b").append(depth).append(" = ");
+                source.append(depth == 0 ? "x" : "b" + (depth - 1) + " + " + index).append("; ");
+            }
+            source.append("if (b7 > x) x = b7 - ").append(index).append(";");
+            for (int depth = 0; depth < 8; depth++) source.append(" }");
+            source.append("\n");
+        }
+    },
+
+    // Chains of string literals joined with '+', and a string grown in a loop.
+    STRING_CONCATENATION {
+        @Override
+        void append(StringBuilder source, int index) {
+            if (index % 16 == 0) {
+                source.append("s = \"\"; i = 0; while (i < 64) { s = s + \"ab\"; i = i + 1; }\n");
+                return;
+            }
+
+            source.append("s = \"").append(index).append("\"");
+            for (int piece = 0; piece < 32; piece++) {
+                source.append(" + \"piece").append(piece).append("\"");
+            }
+            source.append(";\n");
+        }
+    },
+
+    // Every other kind, in turn, plus plain declarations and prints.
+    LARGE_FILE {
+        @Override
+        void append(StringBuilder source, int index) {
+            switch (index % 6) {
+                case 0: DEEP_EXPRESSIONS.append(source, index); break;
+                case 1: MANY_BLOCKS.append(source, index); break;
+                case 2: STRING_CONCATENATION.append(source, index); break;
+                case 3: source.append("var v").append(index).append(" = x * ").append(index).append(" - 1;\n"); break;
+                case 4: source.append("print v").append(index - 1).append(" < x ? \"less\" : \"more\";\n"); break;
+                default: source.append("while (x > 1000) x = x / 2;\n");
+            }
+        }
+    };
+
+    abstract void append(StringBuilder source, int index);
+
+    // Globals the statements use, so they can run in any order.
+    public String generate(int statements) {
+        StringBuilder source = new StringBuilder("var x = 1;\nvar s = \"\";\nvar i = 0;\n");
+        for (int index = 0; index < statements; index++) {
+            append(source, index);
+        }
+        return source.toString();
+    }
+
+    private static String nested(int depth, int index) {
+        if (depth == 0) return "x";
+
+        String operand = nested(depth - 1, index);
+        switch (depth % 3) {
+            case 0: return "(" + operand + " + " + index + ")";
+            case 1: return "(" + operand + " * 1.5)";
+            default: return "(" + operand + " - 2)";
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Checks the IncrementalParser against parsing from scratch. Each seed makes
+// a random program, then edits it at random: inserting statements or stray
+// tokens, deleting and replacing text. After every edit the new source is
+// parsed both ways, the way Program.reparse() does it and with a Parser of
+// its own, and the trees, their lines and the syntax errors must be the
+// same. Most edits leave the source broken; the ones that don't are counted
+// as valid.
+class IncrementalParserTest {
+    private static final int SEEDS = 8;
+    private static final int EDITS = 2000;
+
+    private static final String[] NAMES = { "a", "b", "count", "x1", "total" };
+    private static final String[] FRAGMENTS = {
+            ";", "{", "}", "(", ")", "\n", " ", "/*", "*/", "// note\n", "\"", "else ", "print ",
+            "var ", "if (a) ", "while (b) ", "else print 2;", "1", " + ", " - ", "a", "= ", "? 1 : 2", " and ", "nil",
+    };
+
+    private Random random;
+    private int valid = 0;
+    private long reparsed = 0;
+    private long statements = 0;
+
+    @Test
+    void editsParseTheSameAsFromScratch() throws IOException {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            random = new Random(seed);
+            run(seed);
+        }
+
+        // Enough of the edits have to parse for this to check anything,
+        // and most statements should have been reused.
+        assertTrue(valid > SEEDS * EDITS / 5, valid + " valid edits");
+        assertTrue(reparsed * 4 < statements, reparsed + " of " + statements + " statements parsed again");
+    }
+
+    private void run(int seed) throws IOException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            source.append(statement(0)).append(random.nextInt(4) == 0 ? "\n\n" : "\n");
+        }
+
+        // Like Program, each version goes on from the last one without errors.
+        IncrementalParser last = new IncrementalParser();
+        String good = null;
+        for (int edit = 0; edit <= EDITS; edit++) {
+            if (edit > 0) edit(source);
+            String text = source.toString();
+
+            List<String> errors = new ArrayList<>();
+            IncrementalParser next = last.copy();
+            List<Stmt> incremental = next.parse(text, collect(errors));
+
+            List<String> expectedErrors = new ArrayList<>();
+            ErrorReporter reporter = collect(expectedErrors);
+            List<Stmt> expected = new Parser(new Scanner(text, reporter).scanTokens().cursor(), reporter).parse();
+
+            String where = "seed " + seed + ", edit " + edit + ":\n" + text;
+            assertEquals(expectedErrors, errors, where);
+            if (edit == 0) assertEquals(List.of(), errors, where);
+            if (!errors.isEmpty()) {
+                // Mostly go back to the last good version, but sometimes
+                // keep editing the broken one, as someone typing would.
+                if (random.nextInt(4) > 0) source = new StringBuilder(good);
+                continue;
+            }
+
+            assertArrayEquals(serialize(expected), serialize(incremental), where);
+
+            last = next;
+            good = text;
+            if (edit > 0) {
+                valid++;
+                reparsed += next.reparsed();
+                statements += incremental.size();
+            }
+        }
+    }
+
+    private static ErrorReporter collect(List<String> errors) {
+        return (line, where, message) -> errors.add("[line " + line + "] Error" + where + ": " + message);
+    }
+
+    // The serialized form has every token and statement line in it.
+    private static byte[] serialize(List<Stmt> statements) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AstWriter out = new AstWriter(bytes);
+        out.writeStatements(statements);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void edit(StringBuilder source) {
+        int at = random.nextInt(source.length() + 1);
+        switch (random.nextInt(4)) {
+            case 0:
+                source.insert(at, statement(0) + "\n");
+                break;
+            case 1:
+                source.insert(at, FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                break;
+            case 2:
+                source.delete(at, Math.min(source.length(), at + 1 + random.nextInt(20)));
+                break;
+            default:
+                source.delete(at, Math.min(source.length(), at + 1 + random.nextInt(8)));
+                source.insert(at, random.nextBoolean() ? expression(0) : FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+    }
+
+    private String statement(int depth) {
+        int kinds = depth > 2 ? 5 : 10;
+        switch (random.nextInt(kinds)) {
+            case 0: return "var " + name() + " = " + expression(0) + ";";
+            case 1: return "var " + name() + ";";
+            case 2: return "print " + expression(0) + ";";
+            case 3: return name() + " = " + expression(0) + ";";
+            case 4: return random.nextBoolean() ? expression(0) + ";" : "/* " + name() + "\n */ print 1;";
+            case 5: return "if (" + expression(0) + ") " + body(depth + 1);
+            case 6: return "if (" + expression(0) + ") " + body(depth + 1) + "\nelse " + body(depth + 1);
+            case 7: return "while (" + expression(0) + ")\n" + body(depth + 1);
+            case 8: return "for (var i = 0; i < 3; i = i + 1) " + body(depth + 1);
+            default: {
+                StringBuilder block = new StringBuilder("{\n");
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    block.append("  ").append(statement(depth + 1)).append("\n");
+                }
+                return block.append("}").toString();
+            }
+        }
+    }
+
+    // A statement that can be the body of an if or a loop, so not a 'var'.
+    private String body(int depth) {
+        String statement = statement(depth);
+        while (statement.startsWith("var ")) statement = statement(depth);
+        return statement;
+    }
+
+    private String expression(int depth) {
+        int kinds = depth > 2 ? 4 : 9;
+        switch (random.nextInt(kinds)) {
+            case 0: return Integer.toString(random.nextInt(100));
+            case 1: return random.nextBoolean() ? "\"text\"" : "\"two\nlines\"";
+            case 2: return random.nextBoolean() ? "true" : "nil";
+            case 3: return name();
+            case 4: return expression(depth + 1) + " + " + expression(depth + 1);
+            case 5: return "(" + expression(depth + 1) + ")";
+            case 6: return "-" + expression(depth + 1);
+            case 7: return expression(depth + 1) + " ? " + expression(depth + 1) + " : " + expression(depth + 1);
+            default: return expression(depth + 1) + (random.nextBoolean() ? " and " : " or ") + expression(depth + 1);
+        }
+    }
+
+    private String name() {
+        return NAMES[random.nextInt(NAMES.length)];
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Parsed programs kept on disk, keyed by a SHA-256 of the source, so running
+// the same script again skips the Scanner and Parser.
+//
+// An entry whose checksum or contents don't check out is deleted and the
+// source parsed again. Once the directory is over its size cap the least
+// recently used entries, by modification time, are deleted. The cache is
+// only ever an optimization: if it can't be read or written, it's skipped.
+final class AstCache {
+    private static final int MAGIC = 0x4c4f5841; // "LOXA"
+
+    // Bump whenever the serialized form or the AST classes change, so
+    // entries written by an older jlox are never read.
+    private static final int VERSION = 2;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    AstCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // The cached statements for this source, or null if there aren't any.
+    List<Stmt> load(byte[] source) {
+        Path entry = entry(source);
+        if (!Files.isRegularFile(entry)) return null;
+
+        try {
+            List<Stmt> statements = read(Files.readAllBytes(entry));
+            if (statements == null) {
+                Files.deleteIfExists(entry);
+                return null;
+            }
+
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return statements;
+        } catch (IOException error) {
+            return null;
+        }
+    }
+
+    void store(byte[] source, List<Stmt> statements) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            AstWriter writer = new AstWriter(payload);
+            writer.writeStatements(statements);
+            writer.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(payload.toByteArray());
+
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(payload.size());
+                out.writeInt((int)crc.getValue());
+                payload.writeTo(out);
+            }
+
+            // Readers only ever see a whole entry.
+            Files.move(temporary, entry(source), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException error) {
+            // Nothing cached this time.
+        }
+    }
+
+    // Null if the entry is from another version or damaged.
+    private List<Stmt> read(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 16 || in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length != bytes.length - 16) return null;
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 16, length);
+        if ((int)crc.getValue() != checksum) return null;
+
+        try {
+            AstReader reader = new AstReader(new ByteArrayInputStream(bytes, 16, length));
+            return reader.readStatements();
+        } catch (IOException error) {
+            return null;
+        }
+    }
+
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.ast")) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                total += Files.size(entry);
+            }
+        }
+        if (total <= maxBytes) return;
+
+        entries.sort(Comparator.comparing(AstCache::lastUsed));
+        for (Path entry : entries) {
+            if (total <= maxBytes) break;
+            total -= Files.size(entry);
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    private static FileTime lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException error) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private Path entry(byte[] source) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(source);
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(".ast").toString());
+        } catch (NoSuchAlgorithmException error) {
+            // Every JVM has SHA-256.
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads back syntax trees written by AstWriter. Any malformed input is an
+// IOException, never a half-built tree.
+final class AstReader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    AstReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    int readTag() throws IOException {
+        return in.readUnsignedByte();
+    }
+
+    Expr readExpr() throws IOException {
+        int tag = readTag();
+        if (tag == AstWriter.NULL) return null;
+        return Expr.read(tag, this);
+    }
+
+    Stmt readStmt() throws IOException {
+        int tag = readTag();
+        if (tag == AstWriter.NULL) return null;
+        return Stmt.read(tag, this);
+    }
+
+    List<Stmt> readStatements() throws IOException {
+        int count = readInt();
+        if (count < 0) throw new IOException("Malformed statement list.");
+
+        List<Stmt> statements = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+
+    Token readToken() throws IOException {
+        int type = readTag();
+        if (type >= TYPES.length) throw new IOException("Unknown token type " + type + ".");
+
+        String lexeme = readString();
+        Object literal = readValue();
+        int line = readInt();
+
+        if (TYPES[type] == TokenType.IDENTIFIER) return new Token(Symbol.intern(lexeme), line);
+        return new Token(TYPES[type], lexeme, literal, line);
+    }
+
+    Object readValue() throws IOException {
+        switch (readTag()) {
+            case 0: return null;
+            case 1: return false;
+            case 2: return true;
+            case 3: return in.readDouble();
+            case 4: return readString();
+        }
+        throw new IOException("Unknown value tag.");
+    }
+
+    int readInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed integer.");
+    }
+
+    private String readString() throws IOException {
+        int index = readInt();
+        if (index > 0) {
+            if (index > strings.size()) throw new IOException("Unknown string " + index + ".");
+            return strings.get(index - 1);
+        }
+
+        int length = readInt();
+        if (length < 0 || length > in.available()) throw new IOException("Malformed string.");
+
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        String value = new String(utf8, StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+}
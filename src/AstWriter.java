@@ -0,0 +1,97 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes syntax trees in the compact form AstReader reads back. The node
+// classes write their own fields, see tools/GenerateAst.
+final class AstWriter {
+    static final int NULL = 0xff; // Tag for a missing node.
+
+    private final DataOutputStream out;
+
+    // Each distinct string is written once, then referred to by index.
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    AstWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    void writeTag(int tag) throws IOException {
+        out.writeByte(tag);
+    }
+
+    void writeExpr(Expr expr) throws IOException {
+        if (expr == null) {
+            writeTag(NULL);
+        } else {
+            expr.write(this);
+        }
+    }
+
+    void writeStmt(Stmt stmt) throws IOException {
+        if (stmt == null) {
+            writeTag(NULL);
+        } else {
+            stmt.write(this);
+        }
+    }
+
+    void writeStatements(List<Stmt> statements) throws IOException {
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            writeStmt(statement);
+        }
+    }
+
+    void writeToken(Token token) throws IOException {
+        writeTag(token.type.ordinal());
+        writeString(token.lexeme);
+        writeValue(token.literal);
+        writeInt(token.line);
+    }
+
+    void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writeTag(0);
+        } else if (value instanceof Boolean) {
+            writeTag((boolean)value ? 2 : 1);
+        } else if (value instanceof Double) {
+            writeTag(3);
+            out.writeDouble((double)value);
+        } else {
+            writeTag(4);
+            writeString((String)value);
+        }
+    }
+
+    // Unsigned, seven bits at a time.
+    void writeInt(int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private void writeString(String value) throws IOException {
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeInt(index + 1);
+            return;
+        }
+
+        strings.put(value, strings.size());
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(0);
+        writeInt(utf8.length);
+        out.write(utf8);
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compiled program: the bytecode, the line each byte came from and the
+// constant pool its CONSTANT and name operands index into.
+public class Chunk {
+    private byte[] code = new byte[256];
+    private int[] lines = new int[256];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    private Object[] constantArray; // The rest are unpacked from this.
+    private Object[] constantTags;
+    private double[] constantNumbers;
+
+    void write(byte value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    // Overwrites an operand that was emitted before its value was known.
+    void patch(int offset, int value) {
+        code[offset] = (byte)((value >> 8) & 0xff);
+        code[offset + 1] = (byte)(value & 0xff);
+    }
+
+    int addConstant(Object value) {
+        // Reuse the slot for repeated names and literals.
+        Integer index = constantIndices.get(value);
+        if (index != null) return index;
+
+        constants.add(value);
+        constantIndices.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    int count() {
+        return count;
+    }
+
+    byte[] code() {
+        return code;
+    }
+
+    int line(int offset) {
+        return lines[offset];
+    }
+
+    Object[] constants() {
+        if (constantArray == null) unpack();
+        return constantArray;
+    }
+
+    // The constants as the VM keeps values: a number is tagged VM.NUMBER with
+    // its value in constantNumbers(), anything else is its own tag.
+    Object[] constantTags() {
+        if (constantArray == null) unpack();
+        return constantTags;
+    }
+
+    double[] constantNumbers() {
+        if (constantArray == null) unpack();
+        return constantNumbers;
+    }
+
+    // Done once, when the chunk first runs, so loading a number doesn't unbox.
+    private void unpack() {
+        Object[] array = constants.toArray();
+        constantTags = new Object[array.length];
+        constantNumbers = new double[array.length];
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] instanceof Double) {
+                constantTags[i] = VM.NUMBER;
+                constantNumbers[i] = (double)array[i];
+            } else {
+                constantTags[i] = array[i];
+            }
+        }
+        constantArray = array;
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Just enough of the JVM class file format for the Jit: a class with a single
+// static method. Targets version 49 so no StackMapTable has to be computed.
+final class ClassAssembler {
+    static final int ICONST_0 = 0x03;
+    static final int ICONST_1 = 0x04;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int SIPUSH = 0x11;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD_0 = 0x2a;
+    static final int DALOAD = 0x31;
+    static final int DSTORE = 0x39;
+    static final int DASTORE = 0x52;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int IXOR = 0x82;
+    static final int LCMP = 0x94;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int INVOKESTATIC = 0xb8;
+    static final int WIDE = 0xc4;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final String className;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1; // Entry 0 is unused.
+
+    private byte[] code = new byte[256];
+    private int length = 0;
+
+    // Operand stack depth in slots at the current position, and the deepest
+    // it has been. Callers reset it at branch targets.
+    private int stack = 0;
+    private int maxStack = 0;
+
+    ClassAssembler(String className) {
+        this.className = className;
+    }
+
+    int position() {
+        return length;
+    }
+
+    int stack() {
+        return stack;
+    }
+
+    void stack(int depth) {
+        stack = depth;
+    }
+
+    void op(int opcode, int stackEffect) {
+        put(opcode);
+        adjust(stackEffect);
+    }
+
+    void op(int opcode, int operand, int stackEffect) {
+        put(opcode);
+        putShort(operand);
+        adjust(stackEffect);
+    }
+
+    void pushInt(int value) {
+        op(SIPUSH, value, 1);
+    }
+
+    void pushDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            op(DCONST_0, 2);
+        } else if (value == 1.0) {
+            op(DCONST_1, 2);
+        } else {
+            op(LDC2_W, doubleConstant(value), 2);
+        }
+    }
+
+    void loadDouble(int local) {
+        localOp(DLOAD, local);
+        adjust(2);
+    }
+
+    void storeDouble(int local) {
+        localOp(DSTORE, local);
+        adjust(-2);
+    }
+
+    void invokeStatic(String owner, String name, String descriptor, int stackEffect) {
+        op(INVOKESTATIC, methodRef(owner, name, descriptor), stackEffect);
+    }
+
+    // Emits a forward branch and returns its position for patchJump().
+    int jump(int opcode, int stackEffect) {
+        int at = length;
+        op(opcode, 0, stackEffect);
+        return at;
+    }
+
+    void patchJump(int at) {
+        int offset = length - at;
+        code[at + 1] = (byte)(offset >> 8);
+        code[at + 2] = (byte)offset;
+    }
+
+    void jumpBack(int opcode, int target, int stackEffect) {
+        op(opcode, (target - length) & 0xffff, stackEffect);
+    }
+
+    // Branch offsets are signed 16-bit, so bigger methods can't be expressed.
+    boolean fits() {
+        return length <= Short.MAX_VALUE;
+    }
+
+    byte[] toClassFile(String methodName, String descriptor, int maxLocals) {
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int name = utf8(methodName);
+        int type = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // Interfaces.
+            out.writeShort(0); // Fields.
+
+            out.writeShort(1); // Methods.
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1); // Attributes.
+
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // Exception table.
+            out.writeShort(0); // Code attributes.
+
+            out.writeShort(0); // Class attributes.
+            return bytes.toByteArray();
+        } catch (IOException error) {
+            // Only writing to memory.
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private void localOp(int opcode, int local) {
+        if (local > 0xff) {
+            put(WIDE);
+            put(opcode);
+            putShort(local);
+        } else {
+            put(opcode);
+            put(local);
+        }
+    }
+
+    private void adjust(int stackEffect) {
+        stack += stackEffect;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void put(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = (byte)value;
+    }
+
+    private void putShort(int value) {
+        put(value >> 8);
+        put(value);
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, 1, () -> {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    private int classRef(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, 1, () -> {
+            poolOut.writeByte(7);
+            poolOut.writeShort(nameIndex);
+        });
+    }
+
+    private int doubleConstant(double value) {
+        // Doubles take up two pool entries.
+        return constant("D" + Double.doubleToRawLongBits(value), 2, () -> {
+            poolOut.writeByte(6);
+            poolOut.writeDouble(value);
+        });
+    }
+
+    private int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + descriptor, 1, () -> {
+            poolOut.writeByte(12);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(typeIndex);
+        });
+        return constant("M" + owner + "." + name + descriptor, 1, () -> {
+            poolOut.writeByte(10);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(nameAndType);
+        });
+    }
+
+    private interface PoolWriter {
+        void write() throws IOException;
+    }
+
+    private int constant(String key, int size, PoolWriter writer) {
+        Integer index = poolIndices.get(key);
+        if (index != null) return index;
+
+        try {
+            writer.write();
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+
+        index = poolCount;
+        poolCount += size;
+        poolIndices.put(key, index);
+        return index;
+    }
+}
@@ -0,0 +1,521 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Alternative to the Interpreter's visitor dispatch. Every node is converted
+// once into a small closure with its children and operator already bound, so
+// running the program is just calling those closures. Scopes are resolved
+// while compiling, the same way the Resolver does it for the Interpreter.
+// Binary operators go one further and specialize on the types they see.
+public class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Evaluator>,
+                                        Stmt.Visitor<ClosureCompiler.Executor> {
+
+    interface Evaluator {
+        Object evaluate(Environment environment);
+    }
+
+    interface Executor {
+        void execute(Environment environment);
+    }
+
+    final Environment globals = new Environment();
+    private final Stack<Map<String, Integer>> scopes = new Stack<>();
+    private final Output output;
+
+    ClosureCompiler(Output output) {
+        this.output = output;
+    }
+
+    void interpret(List<Stmt> statements) {
+        Executor program = compileAll(statements);
+
+        // A RuntimeError stops the program and is left to the caller to report.
+        program.execute(globals);
+    }
+
+    private Executor compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Evaluator compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Executor compileAll(List<Stmt> statements) {
+        Executor[] executors = new Executor[statements.size()];
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = compile(statements.get(i));
+        }
+
+        return environment -> {
+            for (Executor executor : executors) {
+                executor.execute(environment);
+            }
+        };
+    }
+
+    @Override
+    public Executor visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        Executor body = compileAll(stmt.statements);
+        scopes.pop();
+
+        int size = stmt.declarationCount;
+        return environment -> body.execute(new Environment(environment, size));
+    }
+
+    @Override
+    public Executor visitExpressionStmt(Stmt.Expression stmt) {
+        Evaluator expression = compile(stmt.expression);
+        return expression::evaluate;
+    }
+
+    @Override
+    public Executor visitIfStmt(Stmt.If stmt) {
+        Evaluator condition = compile(stmt.condition);
+        Executor thenBranch = compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            return environment -> {
+                if (Interpreter.isTruthy(condition.evaluate(environment))) {
+                    thenBranch.execute(environment);
+                }
+            };
+        }
+
+        Executor elseBranch = compile(stmt.elseBranch);
+        return environment -> {
+            if (Interpreter.isTruthy(condition.evaluate(environment))) {
+                thenBranch.execute(environment);
+            } else {
+                elseBranch.execute(environment);
+            }
+        };
+    }
+
+    @Override
+    public Executor visitPrintStmt(Stmt.Print stmt) {
+        Evaluator expression = compile(stmt.expression);
+        return environment -> output.println(expression.evaluate(environment));
+    }
+
+    @Override
+    public Executor visitVarStmt(Stmt.Var stmt) {
+        Evaluator initializer = stmt.initializer != null
+                ? compile(stmt.initializer)
+                : environment -> null;
+
+        if (scopes.isEmpty()) {
+            int slot = globals.globalSlot(stmt.name.symbol);
+            return environment -> globals.defineGlobal(slot, initializer.evaluate(environment));
+        }
+
+        // Declared after the initializer is compiled so `var a = a;` reads
+        // an enclosing 'a'. Redeclaring a name reuses its slot.
+        Map<String, Integer> scope = scopes.peek();
+        Integer slot = scope.get(stmt.name.lexeme);
+        if (slot == null) {
+            slot = scope.size();
+            scope.put(stmt.name.lexeme, slot);
+        }
+
+        int index = slot;
+        return environment -> environment.define(index, initializer.evaluate(environment));
+    }
+
+    @Override
+    public Executor visitWhileStmt(Stmt.While stmt) {
+        Evaluator condition = compile(stmt.condition);
+        Executor body = compile(stmt.body);
+
+        return environment -> {
+            while (Interpreter.isTruthy(condition.evaluate(environment))) {
+                body.execute(environment);
+            }
+        };
+    }
+
+    @Override
+    public Evaluator visitAssignExpr(Expr.Assign expr) {
+        Evaluator value = compile(expr.value);
+        Token name = expr.name;
+
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer slot = scopes.get(i).get(name.lexeme);
+            if (slot != null) {
+                int distance = scopes.size() - 1 - i;
+                return environment -> {
+                    Object result = value.evaluate(environment);
+                    environment.assignAt(distance, slot, result);
+                    return result;
+                };
+            }
+        }
+
+        int slot = globals.globalSlot(name.symbol);
+        return environment -> {
+            Object result = value.evaluate(environment);
+            globals.assignGlobal(slot, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Evaluator visitBinaryExpr(Expr.Binary expr) {
+        return new BinaryNode(compile(expr.left), expr.operator, compile(expr.right));
+    }
+
+    @Override
+    public Evaluator visitGroupingExpr(Expr.Grouping expr) {
+        // Grouping only matters to the parser.
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Evaluator visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return environment -> value;
+    }
+
+    @Override
+    public Evaluator visitLogicalExpr(Expr.Logical expr) {
+        Evaluator left = compile(expr.left);
+        Evaluator right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.OR) {
+            return environment -> {
+                Object value = left.evaluate(environment);
+                return Interpreter.isTruthy(value) ? value : right.evaluate(environment);
+            };
+        }
+
+        return environment -> {
+            Object value = left.evaluate(environment);
+            return !Interpreter.isTruthy(value) ? value : right.evaluate(environment);
+        };
+    }
+
+    @Override
+    public Evaluator visitUnaryExpr(Expr.Unary expr) {
+        Evaluator right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case BANG:
+                return environment -> !Interpreter.isTruthy(right.evaluate(environment));
+            case MINUS:
+                return environment -> {
+                    Object value = right.evaluate(environment);
+                    if (!(value instanceof Double)) {
+                        throw new RuntimeError(operator, "Operand must be a number.");
+                    }
+                    return -(double)value;
+                };
+        }
+
+        // Unreachable.
+        return null;
+    }
+
+    @Override
+    public Evaluator visitTernaryExpr(Expr.Ternary expr) {
+        Evaluator condition = compile(expr.condition);
+        Evaluator trueExpr = compile(expr.trueExpr);
+        Evaluator falseExpr = compile(expr.falseExpr);
+
+        return environment -> Interpreter.isTruthy(condition.evaluate(environment))
+                ? trueExpr.evaluate(environment)
+                : falseExpr.evaluate(environment);
+    }
+
+    @Override
+    public Evaluator visitVariableExpr(Expr.Variable expr) {
+        Token name = expr.name;
+
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer slot = scopes.get(i).get(name.lexeme);
+            if (slot != null) {
+                int distance = scopes.size() - 1 - i;
+                return environment -> environment.getAt(distance, slot, name);
+            }
+        }
+
+        int slot = globals.globalSlot(name.symbol);
+        return environment -> globals.getGlobal(slot, name);
+    }
+
+    // Binary operator that specializes on the operand types it sees. The
+    // closures are fixed once compiled, so the one for the parent keeps
+    // calling this node; what changes is the Specialization it hands off to.
+    // The first evaluation picks one of the final classes below for the
+    // operator and types, e.g. DoubleAdd. That still checks the types of both
+    // operands, but skips the switch on the operator and the string cases. If
+    // other types turn up later it is replaced by Generic for good.
+    private static final class BinaryNode implements Evaluator {
+        private final Evaluator left;
+        private final Token operator;
+        private final Evaluator right;
+        private Specialization specialization;
+
+        BinaryNode(Evaluator left, Token operator, Evaluator right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+            this.specialization = new Uninitialized(this);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            return specialization.evaluate(environment);
+        }
+
+        private Specialization specializationFor(Object a, Object b) {
+            if (a instanceof String && b instanceof String && operator.type == TokenType.PLUS) {
+                return new StringAdd(this);
+            }
+
+            if (!(a instanceof Double && b instanceof Double)) return new Generic(this);
+
+            switch (operator.type) {
+                case PLUS: return new DoubleAdd(this);
+                case MINUS: return new DoubleSubtract(this);
+                case STAR: return new DoubleMultiply(this);
+                case SLASH: return new DoubleDivide(this);
+                case GREATER: return new DoubleGreater(this);
+                case GREATER_EQUAL: return new DoubleGreaterEqual(this);
+                case LESS: return new DoubleLess(this);
+                case LESS_EQUAL: return new DoubleLessEqual(this);
+                default: return new Generic(this);
+            }
+        }
+
+        // Same checks and errors as Interpreter.visitBinaryExpr().
+        private Object generic(Object a, Object b) {
+            switch (operator.type) {
+                case PLUS:
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double)a + (double)b;
+                    }
+
+                    if (a instanceof String && b instanceof String) {
+                        return (String)a + (String)b;
+                    }
+
+                    if (a instanceof String || b instanceof String) {
+                        return Interpreter.stringify(a) + Interpreter.stringify(b);
+                    }
+
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                case MINUS:
+                    checkNumberOperands(a, b);
+                    return (double)a - (double)b;
+                case SLASH:
+                    checkNumberOperands(a, b);
+                    if ((double)b == 0) {
+                        throw new RuntimeError(operator, "Unable to divide by 0.");
+                    }
+                    return (double)a / (double)b;
+                case STAR:
+                    checkNumberOperands(a, b);
+                    return (double)a * (double)b;
+                case GREATER:
+                    checkNumberOperands(a, b);
+                    return (double)a > (double)b;
+                case GREATER_EQUAL:
+                    checkNumberOperands(a, b);
+                    return (double)a >= (double)b;
+                case LESS:
+                    checkNumberOperands(a, b);
+                    return (double)a < (double)b;
+                case LESS_EQUAL:
+                    checkNumberOperands(a, b);
+                    return (double)a <= (double)b;
+                case BANG_EQUAL:
+                    return !Interpreter.isEqual(a, b);
+                case EQUAL_EQUAL:
+                    return Interpreter.isEqual(a, b);
+            }
+
+            // Unreachable.
+            return null;
+        }
+
+        private void checkNumberOperands(Object a, Object b) {
+            if (a instanceof Double && b instanceof Double) return;
+            throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+    }
+
+    private abstract static class Specialization implements Evaluator {
+        final BinaryNode node;
+        final Evaluator left;
+        final Evaluator right;
+
+        Specialization(BinaryNode node) {
+            this.node = node;
+            this.left = node.left;
+            this.right = node.right;
+        }
+
+        // For operands of types this doesn't handle.
+        final Object generalize(Object a, Object b) {
+            node.specialization = new Generic(node);
+            return node.generic(a, b);
+        }
+    }
+
+    private static final class Uninitialized extends Specialization {
+        Uninitialized(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            node.specialization = node.specializationFor(a, b);
+            return node.generic(a, b);
+        }
+    }
+
+    private static final class Generic extends Specialization {
+        Generic(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            return node.generic(left.evaluate(environment), right.evaluate(environment));
+        }
+    }
+
+    private static final class StringAdd extends Specialization {
+        StringAdd(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof String && b instanceof String) return (String)a + (String)b;
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleAdd extends Specialization {
+        DoubleAdd(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof Double && b instanceof Double) return (double)a + (double)b;
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleSubtract extends Specialization {
+        DoubleSubtract(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof Double && b instanceof Double) return (double)a - (double)b;
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleMultiply extends Specialization {
+        DoubleMultiply(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof Double && b instanceof Double) return (double)a * (double)b;
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleDivide extends Specialization {
+        DoubleDivide(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            // Division by zero goes through the generic form for its error.
+            if (a instanceof Double && b instanceof Double && (double)b != 0) {
+                return (double)a / (double)b;
+            }
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleGreater extends Specialization {
+        DoubleGreater(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof Double && b instanceof Double) return (double)a > (double)b;
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleGreaterEqual extends Specialization {
+        DoubleGreaterEqual(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof Double && b instanceof Double) return (double)a >= (double)b;
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleLess extends Specialization {
+        DoubleLess(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof Double && b instanceof Double) return (double)a < (double)b;
+            return generalize(a, b);
+        }
+    }
+
+    private static final class DoubleLessEqual extends Specialization {
+        DoubleLessEqual(BinaryNode node) {
+            super(node);
+        }
+
+        @Override
+        public Object evaluate(Environment environment) {
+            Object a = left.evaluate(environment);
+            Object b = right.evaluate(environment);
+            if (a instanceof Double && b instanceof Double) return (double)a <= (double)b;
+            return generalize(a, b);
+        }
+    }
+}
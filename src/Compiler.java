@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles the parser's statements into a Chunk for the VM. Locals live on the
+// VM's stack, so the compiler tracks which slot each one was given.
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static class CompileError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static final int MAX_OPERAND = 0xffff;
+
+    private final VM vm;
+    private final ErrorReporter reporter;
+    private final Chunk chunk = new Chunk();
+    private final List<Local> locals = new ArrayList<>();
+    private int scopeDepth = 0;
+
+    // Line of the most recent node with a token, used for the bytes that follow.
+    private int line = 1;
+
+    Compiler(VM vm, ErrorReporter reporter) {
+        this.vm = vm;
+        this.reporter = reporter;
+    }
+
+    Chunk compile(List<Stmt> statements) {
+        try {
+            for (Stmt statement : statements) {
+                compile(statement);
+            }
+        } catch (CompileError error) {
+            return null;
+        }
+
+        emit(OpCode.RETURN);
+        return chunk;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopeDepth++;
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        scopeDepth--;
+
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > scopeDepth) {
+            emit(OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign) {
+            // The value isn't needed afterwards, so it's stored and popped at once.
+            assign((Expr.Assign)stmt.expression, OpCode.STORE_LOCAL, OpCode.STORE_GLOBAL);
+            return null;
+        }
+
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = jumpIfFalse(stmt.condition);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+
+        if (scopeDepth == 0) {
+            emit(OpCode.DEFINE_GLOBAL, globalSlot(stmt.name));
+            return null;
+        }
+
+        // Redeclaring a name in the same scope reuses its slot, the value is
+        // already on the stack so it just gets stored and popped.
+        int slot = resolveLocal(stmt.name.lexeme, scopeDepth);
+        if (slot != -1) {
+            emit(OpCode.STORE_LOCAL, slot);
+            return null;
+        }
+
+        if (locals.size() > MAX_OPERAND) {
+            throw error(stmt.name.line, "Too many local variables.");
+        }
+        locals.add(new Local(stmt.name.lexeme, scopeDepth));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count();
+        int exitJump = jumpIfFalse(stmt.condition);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        return null;
+    }
+
+    // Compiles a condition followed by a jump taken when it's false, leaving
+    // nothing on the stack either way. Comparisons jump on their operands
+    // rather than pushing a Boolean to test.
+    private int jumpIfFalse(Expr condition) {
+        if (condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)condition;
+            byte jump;
+            switch (binary.operator.type) {
+                case GREATER: jump = OpCode.JUMP_IF_NOT_GREATER; break;
+                case GREATER_EQUAL: jump = OpCode.JUMP_IF_NOT_GREATER_EQUAL; break;
+                case LESS: jump = OpCode.JUMP_IF_NOT_LESS; break;
+                case LESS_EQUAL: jump = OpCode.JUMP_IF_NOT_LESS_EQUAL; break;
+                default: jump = OpCode.POP_JUMP_IF_FALSE;
+            }
+
+            if (jump != OpCode.POP_JUMP_IF_FALSE) {
+                compile(binary.left);
+                compile(binary.right);
+                line = binary.operator.line;
+                return emitJump(jump);
+            }
+        }
+
+        compile(condition);
+        return emitJump(OpCode.POP_JUMP_IF_FALSE);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        assign(expr, OpCode.SET_LOCAL, OpCode.SET_GLOBAL);
+        return null;
+    }
+
+    private void assign(Expr.Assign expr, byte local, byte global) {
+        compile(expr.value);
+
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name.lexeme, 0);
+        if (slot != -1) {
+            emit(local, slot);
+        } else {
+            emit(global, globalSlot(expr.name));
+        }
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case PLUS: emit(OpCode.ADD); break;
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean)expr.value ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emit(OpCode.CONSTANT, constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emit(OpCode.NOT); break;
+            case MINUS: emit(OpCode.NEGATE); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.condition);
+
+        int falseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.trueExpr);
+
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(falseJump);
+        emit(OpCode.POP);
+        compile(expr.falseExpr);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        int slot = resolveLocal(expr.name.lexeme, 0);
+        if (slot != -1) {
+            // The name is only needed to report an uninitialized read.
+            emit(OpCode.GET_LOCAL, slot, nameConstant(expr.name));
+        } else {
+            emit(OpCode.GET_GLOBAL, globalSlot(expr.name));
+        }
+        return null;
+    }
+
+    // Innermost local with this name declared at or deeper than minDepth.
+    private int resolveLocal(String name, int minDepth) {
+        for (int i = locals.size() - 1; i >= 0; i--) {
+            Local local = locals.get(i);
+            if (local.depth < minDepth) break;
+            if (local.name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    // Globals outlive a single chunk, so their slots are handed out by the VM.
+    private int globalSlot(Token name) {
+        int slot = vm.globalSlot(name.symbol);
+        if (slot > MAX_OPERAND) {
+            throw error(name.line, "Too many global variables.");
+        }
+        return slot;
+    }
+
+    private int nameConstant(Token name) {
+        return constant(name.lexeme);
+    }
+
+    private int constant(Object value) {
+        int index = chunk.addConstant(value);
+        if (index > MAX_OPERAND) {
+            throw error(line, "Too many constants in one chunk.");
+        }
+        return index;
+    }
+
+    private void emit(byte op) {
+        chunk.write(op, line);
+    }
+
+    private void emit(byte op, int operand) {
+        emit(op);
+        emitOperand(operand);
+    }
+
+    private void emit(byte op, int first, int second) {
+        emit(op);
+        emitOperand(first);
+        emitOperand(second);
+    }
+
+    private void emitOperand(int operand) {
+        chunk.write((byte)((operand >> 8) & 0xff), line);
+        chunk.write((byte)(operand & 0xff), line);
+    }
+
+    // Emits a jump with a placeholder offset, returning where to patch it.
+    private int emitJump(byte op) {
+        emit(op, MAX_OPERAND);
+        return chunk.count() - 2;
+    }
+
+    private void emitLoop(int loopStart) {
+        // +3 to also jump back over the LOOP instruction itself.
+        int offset = chunk.count() - loopStart + 3;
+        if (offset > MAX_OPERAND) {
+            throw error(line, "Loop body too large.");
+        }
+        emit(OpCode.LOOP, offset);
+    }
+
+    private void patchJump(int offset) {
+        // -2 to skip over the jump's own operand.
+        int jump = chunk.count() - offset - 2;
+        if (jump > MAX_OPERAND) {
+            throw error(line, "Too much code to jump over.");
+        }
+        chunk.patch(offset, jump);
+    }
+
+    private CompileError error(int line, String message) {
+        reporter.error(line, message);
+        return new CompileError();
+    }
+}
@@ -1,45 +1,134 @@
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
+    private static final Object UNDEFINED = new Object();
+
+    // A global's slot, for a node to remember between runs. Only good for
+    // the Environment that handed it out, as the same program can run
+    // against other globals too.
+    static final class Global {
+        private final Object owner;
+        final int slot;
+
+        private Global(Object owner, int slot) {
+            this.owner = owner;
+            this.slot = slot;
+        }
+    }
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+
+    // The globals get slots in the order they're first seen, every other
+    // scope is a frame of slots whose indices were handed out by the Resolver.
+    private final Map<Symbol, Global> globals;
+    private final Object owner; // Tells this Environment's Globals apart.
+    private Object[] values;
+    private final Object[] slots;
 
     Environment() {
         this.enclosing = null;
+        this.globals = new HashMap<>();
+        this.owner = new Object();
+        this.values = new Object[16];
+        this.slots = null;
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.globals = null;
+        this.owner = null;
+        this.values = null;
+        this.slots = new Object[size];
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            Object value = values.get(name.lexeme);
-            if (value == null) {
-                throw new RuntimeError(name, "Trying to access uninitialized variable '" + name.lexeme + "'.");
-            }
-            return  value;
+    Object getGlobal(int slot, Token name) {
+        Object value = values[slot];
+        if (value != UNDEFINED) {
+            return checkInitialized(name, value);
         }
-        if (enclosing != null) return enclosing.get(name);
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    // Distance and slot have already been worked out by the Resolver, so the
+    // variable is known to be declared in that frame.
+    Object getAt(int distance, int slot, Token name) {
+        return checkInitialized(name, ancestor(distance).slots[slot]);
+    }
+
+    // Reads without the checks above, for callers that test the value themselves.
+    Object peek(Symbol name) {
+        Global global = globals.get(name);
+        Object value = global != null ? values[global.slot] : UNDEFINED;
+        return value == UNDEFINED ? null : value;
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
+    Object peekAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
+    }
+
+    private Object checkInitialized(Token name, Object value) {
+        if (value == null) {
+            throw new RuntimeError(name, "Trying to access uninitialized variable '" + name.lexeme + "'.");
         }
+        return value;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    private Environment ancestor(int distance) {
+        Environment environment = this;
+        for (int i = 0; i < distance; i++) {
+            environment = environment.enclosing;
         }
+        return environment;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    void define(Symbol name, Object value) {
+        // Not values[globalSlot(name)], which would store into the array
+        // from before globalSlot() grew it.
+        int slot = globalSlot(name);
+        values[slot] = value;
+    }
+
+    void defineGlobal(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    // Lets a compiler look a global up once rather than on every access.
+    // The slot stays undefined until the global is defined.
+    int globalSlot(Symbol name) {
+        return global(name).slot;
+    }
+
+    Global global(Symbol name) {
+        Global global = globals.get(name);
+        if (global == null) {
+            int slot = globals.size();
+            if (slot == values.length) values = Arrays.copyOf(values, slot * 2);
+            values[slot] = UNDEFINED;
+            global = new Global(owner, slot);
+            globals.put(name, global);
+        }
+        return global;
+    }
+
+    // Whether a Global cached on a node came from these globals.
+    boolean owns(Global global) {
+        return global != null && global.owner == owner;
+    }
+
+    void define(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    void assignGlobal(int slot, Token name, Object value) {
+        if (values[slot] == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        values[slot] = value;
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 }
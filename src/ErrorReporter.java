@@ -0,0 +1,17 @@
+// Where the Scanner and Parser send syntax errors. A Session prints them; other
+// callers can collect them or just note that there were any.
+interface ErrorReporter {
+    void report(int line, String where, String message);
+
+    default void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    default void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+}
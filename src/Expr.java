@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.List;
 
 abstract class Expr {
@@ -14,10 +15,30 @@ abstract class Expr {
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    abstract void write(AstWriter out) throws IOException;
+
+    // Reads the fields of a node written by write(), after its tag.
+    static Expr read(int tag, AstReader in) throws IOException {
+        switch (tag) {
+            case 0: return new Assign(in.readToken(), in.readExpr());
+            case 1: return new Binary(in.readExpr(), in.readToken(), in.readExpr());
+            case 2: return new Grouping(in.readExpr());
+            case 3: return new Literal(in.readValue());
+            case 4: return new Logical(in.readExpr(), in.readToken(), in.readExpr());
+            case 5: return new Unary(in.readToken(), in.readExpr());
+            case 6: return new Ternary(in.readExpr(), in.readExpr(), in.readExpr());
+            case 7: return new Variable(in.readToken());
+        }
+        throw new IOException("Unknown Expr tag " + tag + ".");
+    }
+
 
     static class Assign extends Expr {
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
+        Environment.Global global;
 
         Assign(Token name, Expr value) {
             this.name = name;
@@ -27,6 +48,12 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitAssignExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(0);
+            out.writeToken(name);
+            out.writeExpr(value);
+        }
     }
 
 
@@ -44,6 +71,13 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitBinaryExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(1);
+            out.writeExpr(left);
+            out.writeToken(operator);
+            out.writeExpr(right);
+        }
     }
 
 
@@ -57,6 +91,11 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitGroupingExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(2);
+            out.writeExpr(expression);
+        }
     }
 
 
@@ -70,6 +109,11 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitLiteralExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(3);
+            out.writeValue(value);
+        }
     }
 
 
@@ -87,6 +131,13 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitLogicalExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(4);
+            out.writeExpr(left);
+            out.writeToken(operator);
+            out.writeExpr(right);
+        }
     }
 
 
@@ -102,6 +153,12 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitUnaryExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(5);
+            out.writeToken(operator);
+            out.writeExpr(right);
+        }
     }
 
 
@@ -119,11 +176,21 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitTernaryExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(6);
+            out.writeExpr(condition);
+            out.writeExpr(trueExpr);
+            out.writeExpr(falseExpr);
+        }
     }
 
 
     static class Variable extends Expr {
         final Token name;
+        int depth = -1;
+        int slot;
+        Environment.Global global;
 
         Variable(Token name) {
             this.name = name;
@@ -132,5 +199,10 @@ abstract class Expr {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitVariableExpr(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(7);
+            out.writeToken(name);
+        }
     }
 }
@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Parses successive versions of a source, such as an editor buffer or a
+// watched file, keeping the top-level statements an edit didn't touch.
+//
+// The edit is found by comparing the new source with the last one. Only the
+// statements overlapping it are scanned and parsed again; the ones before it
+// are reused as they are, and the ones after it too, or copied with their
+// lines moved if the edit added or removed lines. Whenever reusing could
+// give a different result than parsing from scratch, such as an edit that
+// opens a comment or leaves a statement unfinished, the whole source is
+// parsed instead.
+//
+// Program.reparse() is how it's used: each Program keeps the parser that
+// made it and edits continue from a copy, so a Program never changes.
+final class IncrementalParser {
+    // A top-level statement and where it is in the source.
+    private static class Span {
+        final Stmt stmt;
+        final int start; // Offset of its first character.
+        final int end; // Offset just past its last character.
+        final int startLine; // Line it starts on.
+        final int endLine; // Line it ends on.
+
+        Span(Stmt stmt, int start, int end, int startLine, int endLine) {
+            this.stmt = stmt;
+            this.start = start;
+            this.end = end;
+            this.startLine = startLine;
+            this.endLine = endLine;
+        }
+    }
+
+    private char[] source = null;
+    private List<Span> spans = null; // Null if the last source had errors.
+    private int reparsed = 0;
+
+    IncrementalParser() {
+    }
+
+    // Continues from where this one is, leaving it as it is.
+    IncrementalParser copy() {
+        IncrementalParser copy = new IncrementalParser();
+        copy.source = source;
+        copy.spans = spans;
+        return copy;
+    }
+
+    // Syntax errors go to the reporter only when the whole source is parsed,
+    // so they're reported just as a parse from scratch would.
+    List<Stmt> parse(String text, ErrorReporter reporter) {
+        char[] next = text.toCharArray();
+        List<Span> parsed = spans != null ? reparse(next) : null;
+        if (parsed == null) parsed = parseAll(next, reporter);
+
+        source = next;
+        spans = parsed;
+
+        List<Stmt> statements = new ArrayList<>(parsed != null ? parsed.size() : 0);
+        if (parsed != null) {
+            for (Span span : parsed) {
+                statements.add(span.stmt);
+            }
+        }
+        return statements;
+    }
+
+    // Number of statements the last parse() scanned and parsed, as opposed
+    // to reusing.
+    int reparsed() {
+        return reparsed;
+    }
+
+    // Null if it has to start from scratch.
+    private List<Span> reparse(char[] next) {
+        int prefix = 0;
+        int limit = Math.min(source.length, next.length);
+        while (prefix < limit && source[prefix] == next[prefix]) prefix++;
+
+        int suffix = 0;
+        while (suffix < limit - prefix &&
+                source[source.length - 1 - suffix] == next[next.length - 1 - suffix]) {
+            suffix++;
+        }
+
+        // Statements ending before the edit are kept, except the last one:
+        // an edit right after an if statement could be adding its else.
+        int head = 0;
+        while (head < spans.size() && spans.get(head).end <= prefix) head++;
+        head = Math.max(0, head - 1);
+
+        // Statements starting after the edit are kept if the character before
+        // them is unchanged, so nothing the edit added can run into them.
+        int tail = spans.size();
+        while (tail > head && spans.get(tail - 1).start > source.length - suffix) tail--;
+
+        int shift = next.length - source.length;
+        int from = head == 0 ? 0 : spans.get(head - 1).end;
+        int to = tail == spans.size() ? next.length : spans.get(tail).start + shift;
+        int line = head == 0 ? 1 : spans.get(head - 1).endLine;
+
+        boolean[] failed = { false };
+        ErrorReporter quiet = (errorLine, where, message) -> failed[0] = true;
+        Scanner scanner = new Scanner(next, from, to, line, quiet);
+        TokenBuffer tokens = scanner.scanTokens();
+        List<Span> region = parseRegion(tokens, quiet);
+        if (failed[0] || scanner.endedInComment()) return null;
+
+        List<Span> parsed = new ArrayList<>(spans.size() + region.size() - (tail - head));
+        parsed.addAll(spans.subList(0, head));
+        parsed.addAll(region);
+
+        // The EOF token is on the line the region ends on.
+        int lines = tail < spans.size() ? tokens.line(tokens.size() - 1) - spans.get(tail).startLine : 0;
+        LineShifter shifter = new LineShifter(lines);
+        for (Span span : spans.subList(tail, spans.size())) {
+            Stmt stmt = lines == 0 ? span.stmt : span.stmt.accept(shifter);
+            parsed.add(new Span(stmt, span.start + shift, span.end + shift,
+                    span.startLine + lines, span.endLine + lines));
+        }
+
+        reparsed = region.size();
+        return parsed;
+    }
+
+    private List<Span> parseAll(char[] next, ErrorReporter reporter) {
+        boolean[] failed = { false };
+        ErrorReporter recording = (line, where, message) -> {
+            failed[0] = true;
+            reporter.report(line, where, message);
+        };
+
+        Scanner scanner = new Scanner(next, 0, next.length, 1, recording);
+        List<Span> parsed = parseRegion(scanner.scanTokens(), recording);
+        reparsed = parsed.size();
+
+        // Statements with errors in them can't be reused.
+        return failed[0] ? null : parsed;
+    }
+
+    private List<Span> parseRegion(TokenBuffer tokens, ErrorReporter reporter) {
+        TokenBuffer.Cursor cursor = tokens.cursor();
+        Parser parser = new Parser(cursor, reporter);
+
+        List<Span> region = new ArrayList<>();
+        while (parser.hasNext()) {
+            int first = cursor.index();
+            Stmt stmt = parser.next();
+            int last = cursor.index() - 1;
+            region.add(new Span(stmt, tokens.start(first), tokens.end(last),
+                    tokens.startLine(first), tokens.line(last)));
+        }
+        return region;
+    }
+
+    // Copies a statement with every token moved by a number of lines.
+    private static class LineShifter implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+        private final int lines;
+
+        LineShifter(int lines) {
+            this.lines = lines;
+        }
+
+        private Token shift(Token token) {
+            if (token.symbol != null) return new Token(token.symbol, token.line + lines);
+            return new Token(token.type, token.lexeme, token.literal, token.line + lines);
+        }
+
+        private Expr shift(Expr expr) {
+            return expr != null ? expr.accept(this) : null;
+        }
+
+        private Stmt shift(Stmt stmt) {
+            return stmt != null ? stmt.accept(this) : null;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            List<Stmt> statements = new ArrayList<>(stmt.statements.size());
+            for (Stmt statement : stmt.statements) {
+                statements.add(shift(statement));
+            }
+            return new Stmt.Block(statements, stmt.declarationCount);
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            return new Stmt.Expression(shift(stmt.expression), stmt.line + lines);
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt) {
+            return new Stmt.If(shift(stmt.condition), shift(stmt.thenBranch), shift(stmt.elseBranch), stmt.line + lines);
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt) {
+            return new Stmt.Print(shift(stmt.expression), stmt.line + lines);
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            return new Stmt.Var(shift(stmt.name), shift(stmt.initializer));
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            return new Stmt.While(shift(stmt.condition), shift(stmt.body), stmt.line + lines);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            return new Expr.Assign(shift(expr.name), shift(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(shift(expr.left), shift(expr.operator), shift(expr.right));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(shift(expr.expression));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            return new Expr.Logical(shift(expr.left), shift(expr.operator), shift(expr.right));
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(shift(expr.operator), shift(expr.right));
+        }
+
+        @Override
+        public Expr visitTernaryExpr(Expr.Ternary expr) {
+            return new Expr.Ternary(shift(expr.condition), shift(expr.trueExpr), shift(expr.falseExpr));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            return new Expr.Variable(shift(expr.name));
+        }
+    }
+}
@@ -3,20 +3,73 @@ import java.util.List;
 public class Interpreter implements Expr.Visitor<Object>,
                                         Stmt.Visitor<Void> {
 
-    private Environment environment = new Environment();
+    final Environment globals = new Environment();
+    private Environment environment = globals;
+    private Jit jit = new Jit(this);
+    private final Output output;
+    private Profiler profiler = null;
+    String script = "<script>"; // For the events of slow statements.
+
+    // For --stats and LoxMetrics. Loops the Jit compiled don't add to these.
+    long statements = 0;
+    long expressions = 0;
+    long environments = 0;
+    long lookups = 0;
+    long depth = 0; // Scopes walked by lookups.
+    private final LoxMetrics.Recorder metrics = new LoxMetrics.Recorder();
+
+    Interpreter(Output output) {
+        this.output = output;
+    }
 
+    // A RuntimeError stops the program and is left to the caller to report.
     void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement: statements) {
+                LoxEvents.SlowStatement event = new LoxEvents.SlowStatement();
+                event.begin();
                 execute(statement);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.script = script;
+                    event.line = Lines.of(statement);
+                    event.commit();
+                }
             }
-        } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+        } finally {
+            publishMetrics();
         }
     }
 
+    private void publishMetrics() {
+        metrics.publish(statements, expressions, environments, lookups, depth);
+    }
+
     private void execute(Stmt statement) {
-        statement.accept(this);
+        // Keep LoxMetrics up to date while long programs run.
+        if ((++statements & 0xfff) == 0) publishMetrics();
+
+        if (profiler == null || statement instanceof Stmt.Block) {
+            statement.accept(this);
+            return;
+        }
+
+        profiler.enter(statement);
+        try {
+            statement.accept(this);
+        } finally {
+            profiler.exit();
+        }
+    }
+
+    void disableJit() {
+        jit = null;
+    }
+
+    // Instrumenting needs to see every statement, so loops aren't compiled.
+    void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        if (!profiler.sampling()) disableJit();
     }
 
     @Override
@@ -28,13 +81,22 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        output.println(value);
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (stmt.frameSize == -1) {
+            // Its variables, if any, live in the enclosing frame.
+            for (Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
+
+        environments++;
+        executeBlock(stmt.statements, new Environment(environment, stmt.frameSize));
         return null;
     }
 
@@ -54,7 +116,7 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(stmt.condition)) {
+        if (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
             execute(stmt.elseBranch);
@@ -68,14 +130,40 @@ public class Interpreter implements Expr.Visitor<Object>,
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+
+        if (stmt.slot != -1) {
+            environment.define(stmt.slot, value);
+        } else {
+            globals.define(stmt.name.symbol, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Jit.Loop loop = jit != null ? jit.loop(stmt) : null;
+
+        while (isTruthy(evaluate(stmt.condition))) {
+            execute(stmt.body);
+
+            // Once the loop is hot, try to finish it in compiled code.
+            if (loop != null && loop.tick() && jit.run(loop, stmt, environment)) break;
+        }
         return null;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.slot, value);
+        } else {
+            Environment.Global global = expr.global;
+            if (!globals.owns(global)) expr.global = global = globals.global(expr.name.symbol);
+            globals.assignGlobal(global.slot, expr.name, value);
+        }
+
         return value;
     }
 
@@ -174,27 +262,36 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        lookups++;
+        if (expr.depth != -1) {
+            depth += expr.depth;
+            return environment.getAt(expr.depth, expr.slot, expr.name);
+        }
+
+        // The node keeps the slot it was given by whichever globals ran it last.
+        Environment.Global global = expr.global;
+        if (!globals.owns(global)) expr.global = global = globals.global(expr.name.symbol);
+        return globals.getGlobal(global.slot, expr.name);
     }
 
     @Override
     public Object visitTernaryExpr(Expr.Ternary expr) {
-        Boolean cond = (Boolean) evaluate(expr.condition);
-        return cond ? evaluate(expr.trueExpr) : evaluate(expr.falseExpr);
+        return isTruthy(evaluate(expr.condition)) ? evaluate(expr.trueExpr) : evaluate(expr.falseExpr);
     }
 
 
     private Object evaluate(Expr expr) {
+        expressions++;
         return expr.accept(this);
     }
 
-    private Boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private Boolean isEqual(Object left, Object right) {
+    static boolean isEqual(Object left, Object right) {
         if (left == null && right == null) return true;
         if (left == null) return false;
         return left.equals(right);
@@ -210,18 +307,22 @@ public class Interpreter implements Expr.Visitor<Object>,
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
-            String text = object.toString();
-
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
+            return stringify((double)object);
         }
 
         return object.toString();
     }
+
+    static String stringify(double number) {
+        String text = Double.toString(number);
+
+        if (text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text;
+    }
 }
@@ -0,0 +1,475 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Second tier for the Interpreter. Once a while loop has gone round enough
+// times it is compiled to a JVM method working on unboxed doubles, and the
+// rest of the loop runs there. Only numeric loops are handled: anything
+// printing, touching strings or nil stays in the tree-walker. The variables
+// the loop uses are checked to be numbers on the way in, otherwise the
+// interpreter just carries on walking the tree.
+public class Jit {
+    static final int THRESHOLD = 1000;
+
+    private static final MethodType LOOP_TYPE = MethodType.methodType(int.class, double[].class);
+
+    // Execution counter and compiled code for a single while loop.
+    static class Loop {
+        private int backEdges = 0;
+        private boolean compiled = false;
+        private CompiledLoop code;
+
+        // True once the loop is hot enough to try running it compiled.
+        boolean tick() {
+            return ++backEdges >= THRESHOLD;
+        }
+    }
+
+    private static class CompiledLoop {
+        final MethodHandle code;
+        final List<Variable> variables;
+        final List<Token> divisions; // Status n means divisions[n - 1] divided by zero.
+
+        CompiledLoop(MethodHandle code, List<Variable> variables, List<Token> divisions) {
+            this.code = code;
+            this.variables = variables;
+            this.divisions = divisions;
+        }
+    }
+
+    // A variable declared outside the loop, copied in and out of the compiled code.
+    private static class Variable {
+        final int distance; // -1 for globals.
+        final int slot;
+        final Symbol name;
+        int local;
+        boolean assigned = false;
+
+        Variable(int distance, int slot, Symbol name) {
+            this.distance = distance;
+            this.slot = slot;
+            this.name = name;
+        }
+    }
+
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private enum Type { NUMBER, BOOLEAN }
+
+    private final Interpreter interpreter;
+
+    Jit(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // Kept on the node, so it goes away with the program.
+    Loop loop(Stmt.While stmt) {
+        if (stmt.loop == null) stmt.loop = new Loop();
+        return stmt.loop;
+    }
+
+    // Runs the rest of a hot loop as compiled code. Returns false if the loop
+    // can't be compiled or its variables aren't all numbers right now, in
+    // which case the caller keeps interpreting.
+    boolean run(Loop loop, Stmt.While stmt, Environment environment) {
+        if (!loop.compiled) {
+            loop.compiled = true;
+            loop.code = compile(stmt);
+        }
+
+        if (loop.code == null) {
+            loop.backEdges = Integer.MIN_VALUE; // Never ask again.
+            return false;
+        }
+
+        CompiledLoop compiled = loop.code;
+        double[] values = new double[compiled.variables.size()];
+        for (int i = 0; i < values.length; i++) {
+            Object value = read(compiled.variables.get(i), environment);
+            if (!(value instanceof Double)) {
+                loop.backEdges = 0; // Try again later.
+                return false;
+            }
+            values[i] = (double)value;
+        }
+
+        int status;
+        try {
+            status = (int)compiled.code.invokeExact(values);
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            Variable variable = compiled.variables.get(i);
+            if (variable.assigned) write(variable, environment, values[i]);
+        }
+
+        if (status != 0) {
+            throw new RuntimeError(compiled.divisions.get(status - 1), "Unable to divide by 0.");
+        }
+        return true;
+    }
+
+    private Object read(Variable variable, Environment environment) {
+        if (variable.distance == -1) return interpreter.globals.peek(variable.name);
+        return environment.peekAt(variable.distance, variable.slot);
+    }
+
+    private void write(Variable variable, Environment environment, double value) {
+        if (variable.distance == -1) {
+            interpreter.globals.define(variable.name, value);
+        } else {
+            environment.assignAt(variable.distance, variable.slot, value);
+        }
+    }
+
+    private CompiledLoop compile(Stmt.While stmt) {
+        try {
+            // The first pass finds the variables the loop uses from outside,
+            // the second generates code that loads and stores them.
+            LoopCompiler discovery = new LoopCompiler(new LinkedHashMap<>());
+            discovery.compile(stmt);
+
+            Map<String, Variable> variables = discovery.variables;
+            int local = 1;
+            for (Variable variable : variables.values()) {
+                variable.local = local;
+                local += 2;
+            }
+
+            LoopCompiler compiler = new LoopCompiler(variables);
+            byte[] classFile = compiler.compile(stmt);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            MethodHandle code = lookup.findStatic(lookup.lookupClass(), "run", LOOP_TYPE);
+            return new CompiledLoop(code, new ArrayList<>(variables.values()), compiler.divisions);
+        } catch (Unsupported unsupported) {
+            return null;
+        } catch (ReflectiveOperationException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    // Generates `static int run(double[] variables)`. Numbers live in JVM
+    // locals for the whole loop, booleans only ever exist on the stack as 0/1.
+    private class LoopCompiler implements Expr.Visitor<Type>, Stmt.Visitor<Void> {
+        private final ClassAssembler assembler = new ClassAssembler("LoxLoop");
+        private final Map<String, Variable> variables;
+        private final List<Token> divisions = new ArrayList<>();
+
+        // Blocks inside the loop, each mapping its frame slots to JVM locals.
+        private final Stack<int[]> scopes = new Stack<>();
+        private int nextLocal;
+
+        LoopCompiler(Map<String, Variable> variables) {
+            this.variables = variables;
+            this.nextLocal = 1 + 2 * variables.size();
+        }
+
+        byte[] compile(Stmt.While stmt) {
+            int index = 0;
+            for (Variable variable : variables.values()) {
+                assembler.op(ClassAssembler.ALOAD_0, 1);
+                assembler.pushInt(index++);
+                assembler.op(ClassAssembler.DALOAD, 0);
+                assembler.storeDouble(variable.local);
+            }
+
+            compile((Stmt)stmt);
+            exit(0);
+
+            if (!assembler.fits() || nextLocal > 0xffff) throw new Unsupported();
+            return assembler.toClassFile("run", "([D)I", nextLocal);
+        }
+
+        private void compile(Stmt stmt) {
+            stmt.accept(this);
+        }
+
+        private Type compile(Expr expr) {
+            return expr.accept(this);
+        }
+
+        private void compile(Expr expr, Type expected) {
+            if (compile(expr) != expected) throw new Unsupported();
+        }
+
+        // Copies assigned variables back out and returns the status.
+        private void exit(int status) {
+            int index = 0;
+            for (Variable variable : variables.values()) {
+                if (variable.assigned) {
+                    assembler.op(ClassAssembler.ALOAD_0, 1);
+                    assembler.pushInt(index);
+                    assembler.loadDouble(variable.local);
+                    assembler.op(ClassAssembler.DASTORE, -4);
+                }
+                index++;
+            }
+
+            assembler.pushInt(status);
+            assembler.op(ClassAssembler.IRETURN, -1);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            // Mirrors the frames the Interpreter makes.
+            if (stmt.frameSize != -1) scopes.push(new int[stmt.frameSize]);
+            for (Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            if (stmt.frameSize != -1) scopes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            Type type = compile(stmt.expression);
+            assembler.op(type == Type.NUMBER ? ClassAssembler.POP2 : ClassAssembler.POP,
+                    type == Type.NUMBER ? -2 : -1);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            compile(stmt.condition, Type.BOOLEAN);
+            int elseJump = assembler.jump(ClassAssembler.IFEQ, -1);
+            compile(stmt.thenBranch);
+
+            if (stmt.elseBranch == null) {
+                assembler.patchJump(elseJump);
+                return null;
+            }
+
+            int endJump = assembler.jump(ClassAssembler.GOTO, 0);
+            assembler.patchJump(elseJump);
+            compile(stmt.elseBranch);
+            assembler.patchJump(endJump);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.initializer == null) throw new Unsupported();
+            compile(stmt.initializer, Type.NUMBER);
+
+            int[] scope = scopes.peek();
+            if (scope[stmt.slot] == 0) {
+                scope[stmt.slot] = nextLocal;
+                nextLocal += 2;
+            }
+            assembler.storeDouble(scope[stmt.slot]);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            int loopStart = assembler.position();
+            compile(stmt.condition, Type.BOOLEAN);
+            int exitJump = assembler.jump(ClassAssembler.IFEQ, -1);
+            compile(stmt.body);
+            assembler.jumpBack(ClassAssembler.GOTO, loopStart, 0);
+            assembler.patchJump(exitJump);
+            return null;
+        }
+
+        @Override
+        public Type visitAssignExpr(Expr.Assign expr) {
+            compile(expr.value, Type.NUMBER);
+            assembler.op(ClassAssembler.DUP2, 2);
+            assembler.storeDouble(local(expr.depth, expr.slot, expr.name, true));
+            return Type.NUMBER;
+        }
+
+        @Override
+        public Type visitBinaryExpr(Expr.Binary expr) {
+            switch (expr.operator.type) {
+                case PLUS: return arithmetic(expr, ClassAssembler.DADD);
+                case MINUS: return arithmetic(expr, ClassAssembler.DSUB);
+                case STAR: return arithmetic(expr, ClassAssembler.DMUL);
+                case SLASH: {
+                    compile(expr.left, Type.NUMBER);
+                    compile(expr.right, Type.NUMBER);
+
+                    // Leave the loop with the error's site as the status.
+                    assembler.op(ClassAssembler.DUP2, 2);
+                    assembler.op(ClassAssembler.DCONST_0, 2);
+                    assembler.op(ClassAssembler.DCMPL, -3);
+                    int ok = assembler.jump(ClassAssembler.IFNE, -1);
+                    int depth = assembler.stack();
+                    divisions.add(expr.operator);
+                    exit(divisions.size());
+                    assembler.stack(depth);
+                    assembler.patchJump(ok);
+                    assembler.op(ClassAssembler.DDIV, -2);
+                    return Type.NUMBER;
+                }
+                // NaN compares false either way round, hence DCMPG vs DCMPL.
+                case GREATER: return comparison(expr, ClassAssembler.DCMPL, ClassAssembler.IFLE);
+                case GREATER_EQUAL: return comparison(expr, ClassAssembler.DCMPL, ClassAssembler.IFLT);
+                case LESS: return comparison(expr, ClassAssembler.DCMPG, ClassAssembler.IFGE);
+                case LESS_EQUAL: return comparison(expr, ClassAssembler.DCMPG, ClassAssembler.IFGT);
+                case EQUAL_EQUAL: return equality(expr, true);
+                case BANG_EQUAL: return equality(expr, false);
+            }
+
+            throw new Unsupported();
+        }
+
+        private Type arithmetic(Expr.Binary expr, int opcode) {
+            compile(expr.left, Type.NUMBER);
+            compile(expr.right, Type.NUMBER);
+            assembler.op(opcode, -2);
+            return Type.NUMBER;
+        }
+
+        private Type comparison(Expr.Binary expr, int compare, int jumpIfFalse) {
+            compile(expr.left, Type.NUMBER);
+            compile(expr.right, Type.NUMBER);
+            assembler.op(compare, -3);
+            return toBoolean(jumpIfFalse);
+        }
+
+        private Type equality(Expr.Binary expr, boolean equal) {
+            Type left = compile(expr.left);
+            if (left == Type.NUMBER) {
+                // Same as Double.equals(), which is what Interpreter.isEqual() uses.
+                assembler.invokeStatic("java/lang/Double", "doubleToLongBits", "(D)J", 0);
+                compile(expr.right, Type.NUMBER);
+                assembler.invokeStatic("java/lang/Double", "doubleToLongBits", "(D)J", 0);
+                assembler.op(ClassAssembler.LCMP, -3);
+                return toBoolean(equal ? ClassAssembler.IFNE : ClassAssembler.IFEQ);
+            }
+
+            compile(expr.right, Type.BOOLEAN);
+            return toBoolean(equal ? ClassAssembler.IF_ICMPNE : ClassAssembler.IF_ICMPEQ);
+        }
+
+        // Turns the branch on top of the stack into a 0 or 1.
+        private Type toBoolean(int jumpIfFalse) {
+            int stackEffect = jumpIfFalse == ClassAssembler.IF_ICMPNE || jumpIfFalse == ClassAssembler.IF_ICMPEQ ? -2 : -1;
+            int falseJump = assembler.jump(jumpIfFalse, stackEffect);
+            int depth = assembler.stack();
+            assembler.op(ClassAssembler.ICONST_1, 1);
+            int endJump = assembler.jump(ClassAssembler.GOTO, 0);
+            assembler.patchJump(falseJump);
+            assembler.stack(depth);
+            assembler.op(ClassAssembler.ICONST_0, 1);
+            assembler.patchJump(endJump);
+            return Type.BOOLEAN;
+        }
+
+        @Override
+        public Type visitGroupingExpr(Expr.Grouping expr) {
+            return compile(expr.expression);
+        }
+
+        @Override
+        public Type visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value instanceof Double) {
+                assembler.pushDouble((double)expr.value);
+                return Type.NUMBER;
+            }
+
+            if (expr.value instanceof Boolean) {
+                assembler.op((boolean)expr.value ? ClassAssembler.ICONST_1 : ClassAssembler.ICONST_0, 1);
+                return Type.BOOLEAN;
+            }
+
+            throw new Unsupported();
+        }
+
+        @Override
+        public Type visitLogicalExpr(Expr.Logical expr) {
+            // Only booleans, where 'and'/'or' returning an operand is the same
+            // as returning true or false.
+            compile(expr.left, Type.BOOLEAN);
+            boolean or = expr.operator.type == TokenType.OR;
+            int shortCircuit = assembler.jump(or ? ClassAssembler.IFNE : ClassAssembler.IFEQ, -1);
+            int depth = assembler.stack();
+            compile(expr.right, Type.BOOLEAN);
+            int endJump = assembler.jump(ClassAssembler.GOTO, 0);
+            assembler.patchJump(shortCircuit);
+            assembler.stack(depth);
+            assembler.op(or ? ClassAssembler.ICONST_1 : ClassAssembler.ICONST_0, 1);
+            assembler.patchJump(endJump);
+            return Type.BOOLEAN;
+        }
+
+        @Override
+        public Type visitUnaryExpr(Expr.Unary expr) {
+            if (expr.operator.type == TokenType.MINUS) {
+                compile(expr.right, Type.NUMBER);
+                assembler.op(ClassAssembler.DNEG, 0);
+                return Type.NUMBER;
+            }
+
+            compile(expr.right, Type.BOOLEAN);
+            assembler.op(ClassAssembler.ICONST_1, 1);
+            assembler.op(ClassAssembler.IXOR, -1);
+            return Type.BOOLEAN;
+        }
+
+        @Override
+        public Type visitTernaryExpr(Expr.Ternary expr) {
+            compile(expr.condition, Type.BOOLEAN);
+            int falseJump = assembler.jump(ClassAssembler.IFEQ, -1);
+            int depth = assembler.stack();
+            Type type = compile(expr.trueExpr);
+            int endJump = assembler.jump(ClassAssembler.GOTO, 0);
+            assembler.patchJump(falseJump);
+            assembler.stack(depth);
+            compile(expr.falseExpr, type);
+            assembler.patchJump(endJump);
+            return type;
+        }
+
+        @Override
+        public Type visitVariableExpr(Expr.Variable expr) {
+            assembler.loadDouble(local(expr.depth, expr.slot, expr.name, false));
+            return Type.NUMBER;
+        }
+
+        // JVM local holding the variable, using the Resolver's answer for
+        // which scope it lives in.
+        private int local(int distance, int slot, Token name, boolean assigned) {
+            if (distance != -1 && distance < scopes.size()) {
+                int local = scopes.get(scopes.size() - 1 - distance)[slot];
+                if (local == 0) throw new Unsupported();
+                return local;
+            }
+
+            int outerDistance = distance == -1 ? -1 : distance - scopes.size();
+            String key = outerDistance == -1 ? name.lexeme : outerDistance + ":" + slot;
+
+            Variable variable = variables.get(key);
+            if (variable == null) {
+                variable = new Variable(outerDistance, slot, name.symbol);
+                variable.local = nextLocal;
+                nextLocal += 2;
+                variables.put(key, variable);
+            }
+            if (assigned) variable.assigned = true;
+            return variable.local;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+// Line a statement starts on, 0 for an empty block.
+final class Lines implements Stmt.Visitor<Integer> {
+    private static final Lines LINES = new Lines();
+
+    static int of(Stmt stmt) {
+        return stmt.accept(LINES);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            int line = statement.accept(this);
+            if (line > 0) return line;
+        }
+        return 0;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return stmt.line;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        return stmt.line;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return stmt.line;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        return stmt.line;
+    }
+}
@@ -1,79 +1,219 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static final long CACHE_BYTES = 64L << 20;
+    private static final long WATCH_MILLIS = 100;
+
+    private static Session.Backend backend = Session.Backend.INTERPRETER;
+    private static boolean jit = true;
+    private static boolean optimize = false;
+    private static boolean stream = false;
+    private static boolean mmap = false;
+    private static int flushLines = 0;
+    private static AstCache cache = null;
+    private static Profiler profiler = null;
+    private static String stacks = null;
+    private static Stats stats = null;
+    private static boolean watch = false;
+    private static Session session;
 
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        int arg = 0;
+        for (; arg < args.length && args[arg].startsWith("--"); arg++) {
+            switch (args[arg]) {
+                case "--vm": backend = Session.Backend.VM; break;
+                case "--closures": backend = Session.Backend.CLOSURES; break;
+                case "--no-jit": jit = false; break;
+                case "--optimize": optimize = true; break;
+                case "--stream": stream = true; break;
+                case "--mmap": mmap = true; break;
+                case "--flush-lines": flushLines = count(args, ++arg); break;
+                case "--cache": cache = new AstCache(Paths.get(path(args, ++arg)), CACHE_BYTES); break;
+                case "--profile": profiler = new Profiler(false); break;
+                case "--sample": profiler = new Profiler(true); break;
+                case "--stacks": stacks = path(args, ++arg); break;
+                case "--stats": stats = new Stats(); break;
+                case "--jmx": LoxMetrics.register(); break;
+                case "--watch": watch = true; break;
+                default: usage();
+            }
+        }
+
+        if (profiler == null && stacks != null) profiler = new Profiler(false);
+        if (profiler != null && backend != Session.Backend.INTERPRETER) usage(); // Only the Interpreter is profiled.
+        // Watching reruns from the source text, and never gets to report.
+        if (watch && (stream || mmap || cache != null || profiler != null || stats != null)) usage();
+        session = newSession();
+
+        if (args.length - arg > 1) {
+            usage();
+        } else if (args.length - arg == 1 && watch) {
+            watchFile(args[arg]);
+        } else if (args.length - arg == 1) {
+            runFile(args[arg]);
         } else {
             runPrompt();
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+    private static Session newSession() {
+        // Printed lines are only written out when the buffer fills, every
+        // flushLines lines if given, before an error, and at each prompt.
+        Session session = new Session(backend, new Output(System.out, flushLines), new PrintWriter(System.err, true));
+        if (!jit) session.disableJit();
+        if (optimize) session.optimize();
+        if (profiler != null) session.profile(profiler);
+        if (stats != null) session.collectStats(stats);
+        return session;
+    }
 
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm | --closures | --no-jit] [--optimize] [--stream | --mmap] [--flush-lines n] [--cache dir] [--profile | --sample] [--stacks file] [--stats] [--jmx] [--watch] [script]");
+        System.exit(64);
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+    private static String path(String[] args, int arg) {
+        if (arg >= args.length) usage();
+        return args[arg];
+    }
 
-        while (true) {
-            System.out.print("> ");
-            run(reader.readLine());
-            hadError = false;
+    private static int count(String[] args, int arg) {
+        if (arg < args.length) {
+            try {
+                int count = Integer.parseInt(args[arg]);
+                if (count >= 0) return count;
+            } catch (NumberFormatException error) {
+                // Fall through to the usage message.
+            }
         }
+        usage();
+        return 0;
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if (hadError) return; // Stop if there's a syntax error.
+    private static void runFile(String path) throws IOException {
+        session.setScript(path);
+        if (profiler != null) profiler.start();
+        try {
+            readFile(path);
+        } finally {
+            session.flush();
+            if (profiler != null) writeProfile();
+            if (stats != null) stats.report(new PrintWriter(System.err));
+        }
 
-        interpreter.interpret(statements);
+        if (session.hadError()) System.exit(65);
+        if (session.hadRuntimeError()) System.exit(70);
     }
 
+    // Runs the script in a new Session every time the file changes. Each
+    // version is parsed from the last one that had no syntax errors, so only
+    // the statements that were edited are parsed again.
+    private static void watchFile(String path) throws IOException {
+        Path file = Paths.get(path);
+        Program program = null;
+        FileTime modified = null;
 
-    static void error(int line, String message) {
-        report(line, "", message);
+        while (true) {
+            try {
+                FileTime current = Files.getLastModifiedTime(file);
+                if (!current.equals(modified)) {
+                    String source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+                    modified = current;
+                    program = runVersion(path, source, program);
+                }
+            } catch (NoSuchFileException error) {
+                // Editors can remove the file for a moment while saving it.
+            }
+
+            try {
+                Thread.sleep(WATCH_MILLIS);
+            } catch (InterruptedException error) {
+                return;
+            }
+        }
     }
 
+    // Returns the Program to parse the next version from.
+    private static Program runVersion(String path, String source, Program last) {
+        Program program;
+        try {
+            program = last != null ? last.reparse(source) : Program.compile(source);
+        } catch (SyntaxError error) {
+            System.err.println(error.getMessage());
+            return last;
+        }
+
+        session = newSession();
+        session.setScript(path);
+        session.run(program);
+        session.flush();
+        return program;
+    }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+    private static void readFile(String path) throws IOException {
+        if (stream) {
+            // Scanned as it's read instead of loading the whole file first.
+            try (Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+                session.run(new Parser(TokenCursor.of(new Scanner(reader, session)), session));
+            }
+        } else if (mmap) {
+            // Scanned straight out of the page cache, without copying the file.
+            try (FileChannel channel = FileChannel.open(Paths.get(path))) {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                session.run(new Parser(TokenCursor.of(new Scanner(bytes, session)), session));
+            }
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            if (cache == null) {
+                session.run(new String(bytes, Charset.defaultCharset()));
+                return;
+            }
+
+            List<Stmt> statements = cache.load(bytes);
+            if (statements == null) {
+                statements = session.parse(new String(bytes, Charset.defaultCharset()));
+                if (session.hadError()) return;
+
+                cache.store(bytes, statements);
+            }
+            session.execute(statements);
         }
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    // The hot lines go to stderr and the collapsed stacks to their file.
+    private static void writeProfile() throws IOException {
+        profiler.stop();
+        profiler.report(new PrintWriter(System.err));
+        if (stacks == null) return;
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(stacks)))) {
+            profiler.writeStacks(out);
+        }
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    private static void runPrompt() throws IOException {
+        InputStreamReader input = new InputStreamReader(System.in);
+        BufferedReader reader = new BufferedReader(input);
+
+        while (true) {
+            session.flush();
+            System.out.print("> ");
+            session.run(reader.readLine());
+            session.clearError();
+        }
     }
 }
@@ -0,0 +1,70 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+// Flight Recorder events, so what Lox is doing shows up on the same timeline
+// as GC, JIT compilation and the rest of the JVM. They're only filled in and
+// committed when a recording has them enabled; otherwise the JIT leaves
+// next to nothing of them behind.
+final class LoxEvents {
+    private LoxEvents() {
+    }
+
+    @Category("Lox")
+    abstract static class Phase extends Event {
+        @Label("Script")
+        String script;
+    }
+
+    @Name("lox.Scan")
+    @Label("Scan")
+    static class Scan extends Phase {
+        @Label("Tokens")
+        int tokens;
+    }
+
+    // Includes scanning when it happens as the Parser goes, with --stream
+    // and --mmap or in parallel.
+    @Name("lox.Parse")
+    @Label("Parse")
+    static class Parse extends Phase {
+        @Label("Statements")
+        int statements;
+    }
+
+    @Name("lox.Execute")
+    @Label("Execute")
+    @Description("Running statements, including resolving or compiling them first")
+    static class Execute extends Phase {
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Runtime Error")
+    @Category("Lox")
+    static class Error extends Event {
+        @Label("Script")
+        String script;
+
+        @Label("Line")
+        int line;
+
+        @Label("Message")
+        String message;
+    }
+
+    @Name("lox.SlowStatement")
+    @Label("Slow Statement")
+    @Category("Lox")
+    @Description("A top-level statement the Interpreter took longer than the threshold to run")
+    @Threshold("20 ms")
+    static class SlowStatement extends Event {
+        @Label("Script")
+        String script;
+
+        @Label("Line")
+        int line;
+    }
+}
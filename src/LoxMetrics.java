@@ -0,0 +1,110 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Live totals across every Session in the JVM, for monitoring over JMX.
+//
+// Interpreters count into plain fields of their own and only add to these
+// every few thousand statements and when they finish, through a Recorder.
+// The totals are LongAdders, which spread concurrent adds over separate
+// cells, so many sessions at once don't contend on one counter.
+final class LoxMetrics implements LoxMetricsMBean {
+    static final LoxMetrics INSTANCE = new LoxMetrics();
+
+    private static final String NAME = "lox:type=Interpreter";
+    private static boolean registered = false;
+
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder expressions = new LongAdder();
+    private final LongAdder environments = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder depth = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+    private final LongAdder output = new LongAdder();
+
+    private LoxMetrics() {
+    }
+
+    // Registering starts the platform MBean server, which takes long enough
+    // to notice, so it's only done for embedders and with --jmx.
+    static synchronized void register() {
+        if (registered) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(NAME));
+        } catch (JMException error) {
+            // Already there from another class loader; counting goes on anyway.
+        }
+        registered = true;
+    }
+
+    // One per Interpreter. Its counts only ever grow, so it adds what
+    // they've grown by since it last published.
+    static final class Recorder {
+        private long statements = 0;
+        private long expressions = 0;
+        private long environments = 0;
+        private long lookups = 0;
+        private long depth = 0;
+
+        void publish(long statements, long expressions, long environments, long lookups, long depth) {
+            INSTANCE.statements.add(statements - this.statements);
+            INSTANCE.expressions.add(expressions - this.expressions);
+            INSTANCE.environments.add(environments - this.environments);
+            INSTANCE.lookups.add(lookups - this.lookups);
+            INSTANCE.depth.add(depth - this.depth);
+
+            this.statements = statements;
+            this.expressions = expressions;
+            this.environments = environments;
+            this.lookups = lookups;
+            this.depth = depth;
+        }
+    }
+
+    void runtimeError() {
+        runtimeErrors.increment();
+    }
+
+    void wrote(int characters) {
+        output.add(characters);
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getExpressionsEvaluated() {
+        return expressions.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getVariableLookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public double getAverageScopeDepth() {
+        long count = lookups.sum();
+        return count == 0 ? 0 : (double)depth.sum() / count;
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getOutputCharacters() {
+        return output.sum();
+    }
+}
@@ -0,0 +1,18 @@
+// What LoxMetrics shows over JMX, as lox:type=Interpreter.
+public interface LoxMetricsMBean {
+    long getStatementsExecuted();
+
+    long getExpressionsEvaluated();
+
+    long getEnvironmentsAllocated();
+
+    long getVariableLookups();
+
+    // Scopes walked out from the current one to find a local, per lookup.
+    // Globals are found without walking, so they count as 0.
+    double getAverageScopeDepth();
+
+    long getRuntimeErrors();
+
+    long getOutputCharacters();
+}
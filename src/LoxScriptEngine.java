@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// Lox for javax.script. Every eval runs in a fresh Session, with the global
+// and engine bindings defined as Lox globals first. Afterwards the engine
+// bindings are updated with what the script left in those globals. Compiled
+// scripts hold a Program, so they can be cached and run again and again,
+// from any thread.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final ScriptEngineFactory factory;
+
+    LoxScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        try {
+            return new Compiled(this, Program.compile(script));
+        } catch (SyntaxError error) {
+            throw new ScriptException(error.getMessage(), null, error.line);
+        }
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(read(reader));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        try {
+            StringBuilder source = new StringBuilder();
+            char[] buffer = new char[8192];
+            for (int count; (count = reader.read(buffer)) != -1; ) {
+                source.append(buffer, 0, count);
+            }
+            return source.toString();
+        } catch (IOException error) {
+            throw new ScriptException(error);
+        }
+    }
+
+    private static class Compiled extends CompiledScript {
+        private final ScriptEngine engine;
+        private final Program program;
+
+        Compiled(ScriptEngine engine, Program program) {
+            this.engine = engine;
+            this.program = program;
+        }
+
+        // Lox statements have no value, so this is always null.
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            // Runtime errors are thrown rather than printed.
+            Session session = new Session(context.getWriter(), Writer.nullWriter());
+            Object file = context.getAttribute(ScriptEngine.FILENAME);
+            if (file != null) session.setScript(file.toString());
+            define(session, context.getBindings(ScriptContext.GLOBAL_SCOPE));
+            define(session, context.getBindings(ScriptContext.ENGINE_SCOPE));
+
+            session.run(program);
+            session.flush();
+
+            RuntimeError error = session.runtimeError();
+            if (error != null) {
+                throw new ScriptException(error.getMessage(), file != null ? file.toString() : null, error.line);
+            }
+
+            Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            if (bindings != null) {
+                for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+                    Object value = session.get(binding.getKey());
+                    if (value != null) binding.setValue(value);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        // Bindings that aren't Lox values, such as the engine's own
+        // attributes, are left out.
+        private static void define(Session session, Bindings bindings) {
+            if (bindings == null) return;
+
+            for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+                try {
+                    session.define(binding.getKey(), binding.getValue());
+                } catch (IllegalArgumentException error) {
+                    // Not visible to the script.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+// Instructions understood by the VM. Operands follow the opcode in the chunk
+// as unsigned 16-bit values, high byte first.
+final class OpCode {
+    static final byte CONSTANT = 0;      // [constant]
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    static final byte GET_LOCAL = 5;     // [slot] [name constant]
+    static final byte SET_LOCAL = 6;     // [slot]
+    static final byte GET_GLOBAL = 7;    // [global slot]
+    static final byte DEFINE_GLOBAL = 8; // [global slot]
+    static final byte SET_GLOBAL = 9;    // [global slot]
+
+    static final byte EQUAL = 10;
+    static final byte NOT_EQUAL = 11;
+    static final byte GREATER = 12;
+    static final byte GREATER_EQUAL = 13;
+    static final byte LESS = 14;
+    static final byte LESS_EQUAL = 15;
+    static final byte ADD = 16;
+    static final byte SUBTRACT = 17;
+    static final byte MULTIPLY = 18;
+    static final byte DIVIDE = 19;
+    static final byte NOT = 20;
+    static final byte NEGATE = 21;
+
+    static final byte PRINT = 22;
+    static final byte JUMP = 23;          // [forward offset]
+    static final byte JUMP_IF_FALSE = 24; // [forward offset], leaves the condition on the stack.
+    static final byte LOOP = 25;          // [backward offset]
+    static final byte RETURN = 26;
+
+    // Fused forms of common pairs, so running them takes one dispatch.
+    static final byte STORE_LOCAL = 27;       // [slot], SET_LOCAL then POP.
+    static final byte STORE_GLOBAL = 28;      // [global slot], SET_GLOBAL then POP.
+    static final byte POP_JUMP_IF_FALSE = 29; // [forward offset], pops the condition either way.
+
+    // A comparison and POP_JUMP_IF_FALSE on its result. [forward offset]
+    static final byte JUMP_IF_NOT_GREATER = 30;
+    static final byte JUMP_IF_NOT_GREATER_EQUAL = 31;
+    static final byte JUMP_IF_NOT_LESS = 32;
+    static final byte JUMP_IF_NOT_LESS_EQUAL = 33;
+
+    private OpCode() { }
+}
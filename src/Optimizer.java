@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+// Optional pass between the parser and the backends. Folds operators over
+// literals, drops branches whose condition is a literal, and replaces reads
+// of variables that are declared with a literal and never assigned.
+//
+// Anything that would raise a runtime error is left alone, so the error still
+// happens when the program runs and on the same line.
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Marks a name that shadows an outer constant but isn't one itself.
+    private static final Object NOT_CONSTANT = new Object();
+
+    // Folding evaluates literals through the Interpreter so the results
+    // are exactly what running the program would produce.
+    private final Interpreter evaluator = new Interpreter(null); // Only evaluates, never prints.
+
+    private final Set<String> assigned = new HashSet<>();
+    private final Stack<Map<String, Object>> scopes = new Stack<>();
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        findAssignments(statements);
+
+        scopes.push(new HashMap<>()); // Globals.
+        List<Stmt> optimized = optimizeAll(statements);
+        scopes.pop();
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            optimized.add(optimize(statement));
+        }
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashMap<>());
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        scopes.pop();
+        return new Stmt.Block(statements, stmt.declarationCount);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        return new Stmt.Expression(optimize(stmt.expression), stmt.line);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal) {
+            if (Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+                return optimize(stmt.thenBranch);
+            }
+            if (stmt.elseBranch != null) return optimize(stmt.elseBranch);
+            return empty();
+        }
+
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        return new Stmt.If(condition, optimize(stmt.thenBranch), elseBranch, stmt.line);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression), stmt.line);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.initializer != null ? optimize(stmt.initializer) : null;
+
+        // A nil initializer still counts as uninitialized when read.
+        Object value = NOT_CONSTANT;
+        if (initializer instanceof Expr.Literal && !assigned.contains(stmt.name.lexeme)) {
+            Object literal = ((Expr.Literal)initializer).value;
+            if (literal != null) value = literal;
+        }
+        scopes.peek().put(stmt.name.lexeme, value);
+
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+            return empty();
+        }
+
+        return new Stmt.While(condition, optimize(stmt.body), stmt.line);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        Expr.Binary binary = new Expr.Binary(left, expr.operator, right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            try {
+                return new Expr.Literal(evaluator.visitBinaryExpr(binary));
+            } catch (RuntimeError error) {
+                // Leave it for the runtime to report.
+            }
+        }
+        return binary;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if (expression instanceof Expr.Literal) return expression;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        Expr.Unary unary = new Expr.Unary(expr.operator, right);
+
+        if (right instanceof Expr.Literal) {
+            try {
+                return new Expr.Literal(evaluator.visitUnaryExpr(unary));
+            } catch (RuntimeError error) {
+                // Leave it for the runtime to report.
+            }
+        }
+        return unary;
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = optimize(expr.condition);
+        Expr trueExpr = optimize(expr.trueExpr);
+        Expr falseExpr = optimize(expr.falseExpr);
+
+        if (condition instanceof Expr.Literal) {
+            return Interpreter.isTruthy(((Expr.Literal)condition).value) ? trueExpr : falseExpr;
+        }
+
+        return new Expr.Ternary(condition, trueExpr, falseExpr);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        // Scopes only hold the declarations seen so far, which is what the
+        // variable would resolve to when it runs.
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Map<String, Object> scope = scopes.get(i);
+            if (scope.containsKey(expr.name.lexeme)) {
+                Object value = scope.get(expr.name.lexeme);
+                return value == NOT_CONSTANT ? expr : new Expr.Literal(value);
+            }
+        }
+
+        return expr;
+    }
+
+    private Stmt empty() {
+        return new Stmt.Block(new ArrayList<>(), 0);
+    }
+
+    // Any name assigned anywhere is never propagated, whichever scope the
+    // assignment targets.
+    private void findAssignments(List<Stmt> statements) {
+        Expr.Visitor<Void> finder = new Expr.Visitor<Void>() {
+            @Override
+            public Void visitAssignExpr(Expr.Assign expr) {
+                assigned.add(expr.name.lexeme);
+                return expr.value.accept(this);
+            }
+
+            @Override
+            public Void visitBinaryExpr(Expr.Binary expr) {
+                expr.left.accept(this);
+                return expr.right.accept(this);
+            }
+
+            @Override
+            public Void visitGroupingExpr(Expr.Grouping expr) {
+                return expr.expression.accept(this);
+            }
+
+            @Override
+            public Void visitLiteralExpr(Expr.Literal expr) {
+                return null;
+            }
+
+            @Override
+            public Void visitLogicalExpr(Expr.Logical expr) {
+                expr.left.accept(this);
+                return expr.right.accept(this);
+            }
+
+            @Override
+            public Void visitUnaryExpr(Expr.Unary expr) {
+                return expr.right.accept(this);
+            }
+
+            @Override
+            public Void visitTernaryExpr(Expr.Ternary expr) {
+                expr.condition.accept(this);
+                expr.trueExpr.accept(this);
+                return expr.falseExpr.accept(this);
+            }
+
+            @Override
+            public Void visitVariableExpr(Expr.Variable expr) {
+                return null;
+            }
+        };
+
+        Stmt.Visitor<Void> walker = new Stmt.Visitor<Void>() {
+            @Override
+            public Void visitBlockStmt(Stmt.Block stmt) {
+                for (Stmt statement : stmt.statements) {
+                    statement.accept(this);
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitExpressionStmt(Stmt.Expression stmt) {
+                return stmt.expression.accept(finder);
+            }
+
+            @Override
+            public Void visitIfStmt(Stmt.If stmt) {
+                stmt.condition.accept(finder);
+                stmt.thenBranch.accept(this);
+                if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+                return null;
+            }
+
+            @Override
+            public Void visitPrintStmt(Stmt.Print stmt) {
+                return stmt.expression.accept(finder);
+            }
+
+            @Override
+            public Void visitVarStmt(Stmt.Var stmt) {
+                if (stmt.initializer != null) stmt.initializer.accept(finder);
+                return null;
+            }
+
+            @Override
+            public Void visitWhileStmt(Stmt.While stmt) {
+                stmt.condition.accept(finder);
+                return stmt.body.accept(this);
+            }
+        };
+
+        for (Stmt statement : statements) {
+            statement.accept(walker);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+// Where print statements write. Lines collect in a buffer that's written out
+// in one go when it fills, every so many lines if asked, or when flushed,
+// which Lox does before reporting an error, at the REPL prompt and on exit.
+public final class Output {
+    private static final int CAPACITY = 1 << 16; // Flushes once it holds this much.
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final Writer out;
+    private final int flushLines; // 0 to only flush when full or asked to.
+
+    // Starts small, since most sessions print little, and grows as needed.
+    private final StringBuilder buffer = new StringBuilder(256);
+    private int lines = 0;
+
+    Output(OutputStream out, int flushLines) {
+        this(new OutputStreamWriter(out), flushLines);
+    }
+
+    Output(Writer out, int flushLines) {
+        this.out = out;
+        this.flushLines = flushLines;
+    }
+
+    // Same text as Interpreter.stringify(), without building the String.
+    void println(Object value) {
+        if (value == null) {
+            buffer.append("nil");
+        } else if (value instanceof Double) {
+            append((double)value);
+        } else {
+            buffer.append(value);
+        }
+        endLine();
+    }
+
+    void println(double number) {
+        append(number);
+        endLine();
+    }
+
+    void flush() {
+        try {
+            int length = buffer.length();
+            out.append(buffer);
+            out.flush();
+            LoxMetrics.INSTANCE.wrote(length);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+
+        buffer.setLength(0);
+        lines = 0;
+    }
+
+    private void append(double number) {
+        buffer.append(number);
+
+        // Integers print without the trailing ".0".
+        int length = buffer.length();
+        if (buffer.charAt(length - 2) == '.' && buffer.charAt(length - 1) == '0') {
+            buffer.setLength(length - 2);
+        }
+    }
+
+    private void endLine() {
+        buffer.append(NEWLINE);
+        lines++;
+
+        if (buffer.length() >= CAPACITY || (flushLines > 0 && lines >= flushLines)) {
+            flush();
+        }
+    }
+}
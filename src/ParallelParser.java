@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Scans and parses a large source in chunks on a ForkJoinPool.
+//
+// The source is split after a ';' or '}' at the end of a line, which is
+// usually the end of a top-level statement. Whether it really was is checked
+// afterwards: the chunk before it must have scanned and parsed cleanly,
+// ending on that very token and not inside a comment, and the chunk after
+// it must parse cleanly from there. Anything else, including any syntax
+// error, makes parse() return null so the caller parses sequentially, which
+// reports errors exactly as usual.
+final class ParallelParser {
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    // Only split sources with at least two chunks' worth for every thread.
+    static boolean worthIt(int length) {
+        return ForkJoinPool.getCommonPoolParallelism() > 1 && length >= 2 * CHUNK_SIZE;
+    }
+
+    static List<Stmt> parse(char[] source) {
+        List<Integer> bounds = split(source);
+        int chunks = bounds.size() - 1;
+        if (chunks < 2) return null;
+
+        // Each chunk has to be scanned knowing the line it starts on.
+        List<Callable<Integer>> counts = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds.get(i);
+            int to = bounds.get(i + 1);
+            counts.add(() -> newlines(source, from, to));
+        }
+        List<Integer> newlines = run(counts);
+        if (newlines == null) return null;
+
+        List<Callable<List<Stmt>>> parses = new ArrayList<>();
+        int line = 1;
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds.get(i);
+            int to = bounds.get(i + 1);
+            int startLine = line;
+            boolean last = i == chunks - 1;
+            parses.add(() -> parseChunk(source, from, to, startLine, last));
+            line += newlines.get(i);
+        }
+        List<List<Stmt>> parsed = run(parses);
+        if (parsed == null) return null;
+
+        List<Stmt> statements = new ArrayList<>();
+        for (List<Stmt> chunk : parsed) {
+            if (chunk == null) return null;
+            statements.addAll(chunk);
+        }
+        return statements;
+    }
+
+    // Offsets where the chunks start, followed by the end of the source.
+    private static List<Integer> split(char[] source) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+
+        for (int target = CHUNK_SIZE; target < source.length; target += CHUNK_SIZE) {
+            int at = Math.max(target, bounds.get(bounds.size() - 1));
+            int limit = Math.min(source.length - 1, target + CHUNK_SIZE);
+            while (at < limit && !endsStatement(source, at)) at++;
+            if (at < limit) bounds.add(at + 1);
+        }
+
+        bounds.add(source.length);
+        return bounds;
+    }
+
+    private static boolean endsStatement(char[] source, int at) {
+        return (source[at] == ';' || source[at] == '}') && source[at + 1] == '\n';
+    }
+
+    private static int newlines(char[] source, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (source[i] == '\n') count++;
+        }
+        return count;
+    }
+
+    // Null if the chunk didn't turn out to be whole statements.
+    private static List<Stmt> parseChunk(char[] source, int from, int to, int line, boolean last) {
+        boolean[] failed = { false };
+        ErrorReporter quiet = (errorLine, where, message) -> failed[0] = true;
+
+        Scanner scanner = new Scanner(source, from, to, line, quiet);
+        TokenBuffer tokens = scanner.scanTokens();
+        if (failed[0] || scanner.endedInComment()) return null;
+
+        // The last token before EOF has to be the one the chunk was split after.
+        int end = tokens.size() - 2;
+        if (!last && (end < 0 || tokens.end(end) != to)) return null;
+
+        List<Stmt> statements = new Parser(tokens.cursor(), quiet).parse();
+        return failed[0] ? null : statements;
+    }
+
+    // Runs the tasks on the common pool, in order. Null if any of them failed.
+    private static <T> List<T> run(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException error) {
+            return null;
+        }
+        return results;
+    }
+}
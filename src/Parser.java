@@ -1,15 +1,17 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class Parser {
 
     private static class ParseError extends RuntimeException { }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    private final TokenCursor tokens;
+    private final ErrorReporter reporter;
 
-    Parser(List<Token> tokens) {
+    Parser(TokenCursor tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
     List<Stmt> parse() {
@@ -20,6 +22,16 @@ public class Parser {
         return statements;
     }
 
+    // One top-level declaration at a time, for callers that keep track of
+    // where each one is. False once there are none left.
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    Stmt next() {
+        return declaration();
+    }
+
     private Stmt declaration() {
         try {
             if (match(TokenType.VAR)) return varDeclaration();
@@ -31,7 +43,8 @@ public class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expected variable name.");
+        consume(TokenType.IDENTIFIER, "Expected variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
@@ -43,19 +56,68 @@ public class Parser {
     }
 
     private Stmt statement() {
+        if (match(TokenType.FOR)) return forStatement();
         if (match(TokenType.IF)) return ifStatement();
         if (match(TokenType.PRINT)) return printStatement();
-        if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
+        if (match(TokenType.WHILE)) return whileStatement();
+        if (match(TokenType.LEFT_BRACE)) return block();
         return expressionStatement();
     }
 
     private Stmt expressionStatement() {
+        int line = tokens.line();
         Expr expr = expression();
         consume(TokenType.SEMICOLON, "Expect ';' after expression.");
-        return new Stmt.Expression(expr);
+        return new Stmt.Expression(expr, line);
+    }
+
+    // Desugars into a while loop wrapped in blocks for the initializer and
+    // increment, so nothing past the parser needs to know about 'for'.
+    private Stmt forStatement() {
+        int line = tokens.previousLine();
+        consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+
+        Stmt initializer;
+        if (match(TokenType.SEMICOLON)) {
+            initializer = null;
+        } else if (match(TokenType.VAR)) {
+            initializer = varDeclaration();
+        } else {
+            initializer = expressionStatement();
+        }
+
+        Expr condition = null;
+        if (!check(TokenType.SEMICOLON)) {
+            condition = expression();
+        }
+        consume(TokenType.SEMICOLON, "Expect ';' after loop condition.");
+
+        Expr increment = null;
+        int incrementLine = tokens.line();
+        if (!check(TokenType.RIGHT_PAREN)) {
+            increment = expression();
+        }
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+
+        Stmt body = statement();
+
+        if (increment != null) {
+            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment, incrementLine)), 0);
+        }
+
+        if (condition == null) condition = new Expr.Literal(true);
+        body = new Stmt.While(condition, body, line);
+
+        if (initializer != null) {
+            int declarationCount = initializer instanceof Stmt.Var ? 1 : 0;
+            body = new Stmt.Block(Arrays.asList(initializer, body), declarationCount);
+        }
+
+        return body;
     }
 
     private Stmt ifStatement() {
+        int line = tokens.previousLine();
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expect ')' after 'if' condition.");
@@ -66,23 +128,37 @@ public class Parser {
             elseBranch = statement();
         }
 
-        return new Stmt.If(condition, thenBranch, elseBranch);
+        return new Stmt.If(condition, thenBranch, elseBranch, line);
     }
 
     private Stmt printStatement() {
+        int line = tokens.previousLine();
         Expr value = expression();
         consume(TokenType.SEMICOLON, "Expect ';' after value.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(value, line);
     }
 
-    private List<Stmt> block() {
+    private Stmt whileStatement() {
+        int line = tokens.previousLine();
+        consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
+        Expr condition = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after condition.");
+        Stmt body = statement();
+
+        return new Stmt.While(condition, body, line);
+    }
+
+    private Stmt.Block block() {
         List<Stmt> statements = new ArrayList<>();
+        int declarationCount = 0; // Sizes the block's frame at runtime.
 
         while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+            Stmt statement = declaration();
+            if (statement instanceof Stmt.Var) declarationCount++;
+            statements.add(statement);
         }
         consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
-        return statements;
+        return new Stmt.Block(statements, declarationCount);
     }
 
     private Expr expression() {
@@ -267,14 +343,17 @@ public class Parser {
     }
 
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) { return advance(); }
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -282,9 +361,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) return;
+            if (tokens.previousType() == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type()) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -303,29 +382,26 @@ public class Parser {
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type() == type;
     }
 
-    private Token advance() {
-        if (!isAtEnd()) {
-            current++;
-        }
-        return previous();
+    private void advance() {
+        if (!isAtEnd()) tokens.advance();
     }
 
     // See if we've run out of tokens to consume.
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type() == TokenType.EOF;
     }
 
     // Current token yet to be consumed.
     private Token peek() {
-        return tokens.get(current);
+        return tokens.current();
     }
 
     // Most recently consumed token.
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
 }
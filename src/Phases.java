@@ -0,0 +1,49 @@
+import java.io.OutputStream;
+import java.util.List;
+
+// Each phase on its own, for the benchmarks. These classes are in the
+// default package, which code in a named package can't import, so the
+// benchmarks call these methods through method handles instead. The results
+// are opaque to them and only passed on to the next phase.
+public final class Phases {
+    private static final OutputStream DISCARD = OutputStream.nullOutputStream();
+
+    private Phases() {
+    }
+
+    // Returns the TokenBuffer.
+    public static Object scan(String source) {
+        return new Scanner(source, Phases::fail).scanTokens();
+    }
+
+    // Takes what scan() returned and returns the statements.
+    public static Object parse(Object tokens) {
+        return new Parser(((TokenBuffer)tokens).cursor(), Phases::fail).parse();
+    }
+
+    // A Session that throws away what it prints, for execute().
+    public static Object session() {
+        return new Session(DISCARD, DISCARD);
+    }
+
+    // Runs what parse() returned in a Session from session().
+    @SuppressWarnings("unchecked")
+    public static void execute(Object session, Object statements) {
+        Session running = (Session)session;
+        running.execute((List<Stmt>)statements);
+        running.flush();
+        if (running.hadRuntimeError()) throw new IllegalStateException(running.runtimeError().getMessage());
+    }
+
+    // The whole thing, in a Session of its own, for SessionBenchmark.
+    public static void run(String source) {
+        Session session = new Session(DISCARD, DISCARD);
+        session.run(source);
+        session.flush();
+        if (session.hadError() || session.hadRuntimeError()) throw new IllegalStateException("Script failed.");
+    }
+
+    private static void fail(int line, String where, String message) {
+        throw new IllegalArgumentException("[line " + line + "] Error" + where + ": " + message);
+    }
+}
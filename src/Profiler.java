@@ -0,0 +1,224 @@
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Finds where the Interpreter spends its time, by statement and by line.
+//
+// The Interpreter tells the profiler whenever a statement starts and
+// finishes, which builds a tree of the statements as they were nested when
+// they ran. Each frame in the tree counts how often its statement ran there.
+// Instrumenting also times every statement, which is exact but calls
+// System.nanoTime() twice per statement; the Jit is turned off so every
+// statement is seen. Sampling instead has a thread look at the current frame
+// every millisecond, so time is only estimated, loops can still be compiled
+// (their time then goes to the while statement) and statements cost no more
+// than finding their frame.
+//
+// Blocks aren't frames of their own; their statements are frames of the
+// statement around the block. Frames are named after the kind of statement
+// and the line it starts on.
+final class Profiler {
+    private static final long INTERVAL_MILLIS = 1;
+    private static final VarHandle CURRENT;
+
+    static {
+        try {
+            CURRENT = MethodHandles.lookup().findVarHandle(Profiler.class, "current", Frame.class);
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private static class Frame {
+        final Stmt stmt;
+        final int line;
+        final Frame parent;
+
+        private Map<Stmt, Frame> children = null;
+        // The child found last, since a statement usually runs many times
+        // in a row from the same place.
+        private Frame lastChild = null;
+
+        long count = 0;
+        long nanos = 0; // Total, when instrumenting.
+        long childNanos = 0;
+        long samples = 0; // Self, when sampling.
+
+        Frame(Stmt stmt, int line, Frame parent) {
+            this.stmt = stmt;
+            this.line = line;
+            this.parent = parent;
+        }
+
+        Frame child(Stmt stmt) {
+            if (lastChild != null && lastChild.stmt == stmt) return lastChild;
+
+            if (children == null) children = new IdentityHashMap<>();
+            Frame child = children.get(stmt);
+            if (child == null) {
+                child = new Frame(stmt, Lines.of(stmt), this);
+                children.put(stmt, child);
+            }
+            lastChild = child;
+            return child;
+        }
+
+        Iterable<Frame> children() {
+            return children != null ? children.values() : List.of();
+        }
+
+        String name() {
+            if (stmt == null) return "<script>";
+            return stmt.getClass().getSimpleName().toLowerCase() + ":" + line;
+        }
+    }
+
+    private final boolean sampling;
+    private final Frame root = new Frame(null, 0, null);
+    @SuppressWarnings("unused") // Written and read through CURRENT.
+    private Frame current = root;
+
+    private long[] starts = new long[64]; // Start times of the frames running.
+    private int depth = 0;
+    private Thread sampler = null;
+
+    Profiler(boolean sampling) {
+        this.sampling = sampling;
+    }
+
+    boolean sampling() {
+        return sampling;
+    }
+
+    void start() {
+        if (!sampling) return;
+
+        sampler = new Thread(this::sample, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        if (sampler == null) return;
+
+        sampler.interrupt();
+        try {
+            sampler.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+    }
+
+    private void sample() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException error) {
+                return;
+            }
+            ((Frame)CURRENT.getAcquire(this)).samples++;
+        }
+    }
+
+    void enter(Stmt stmt) {
+        Frame frame = ((Frame)CURRENT.get(this)).child(stmt);
+        frame.count++;
+
+        if (!sampling) {
+            if (depth == starts.length) starts = Arrays.copyOf(starts, depth * 2);
+            starts[depth++] = System.nanoTime();
+        }
+        CURRENT.setRelease(this, frame);
+    }
+
+    void exit() {
+        Frame frame = (Frame)CURRENT.get(this);
+
+        if (!sampling) {
+            long elapsed = System.nanoTime() - starts[--depth];
+            frame.nanos += elapsed;
+            frame.parent.childNanos += elapsed;
+        }
+        CURRENT.setRelease(this, frame.parent);
+    }
+
+    // One row per line, hottest first.
+    void report(PrintWriter out) {
+        Map<Integer, long[]> lines = new HashMap<>();
+        List<Integer> order = new ArrayList<>();
+        long[] grandTotal = { 0 };
+        tally(root, lines, order, grandTotal);
+
+        order.sort((a, b) -> Long.compare(lines.get(b)[1], lines.get(a)[1]));
+
+        String unit = sampling ? "samples" : "ms";
+        out.printf("%6s %12s %12s %12s %7s%n", "Line", "Count", "Self " + unit, "Total " + unit, "Self %");
+        for (Integer line : order) {
+            long[] row = lines.get(line);
+            double percent = grandTotal[0] == 0 ? 0 : 100.0 * row[1] / grandTotal[0];
+            out.printf("%6d %12d %12s %12s %6.1f%%%n", line, row[0], amount(row[1]), amount(row[2]), percent);
+        }
+        out.flush();
+    }
+
+    // Adds the frame and everything below it to the lines' count, self and
+    // total. A line's total only includes frames with no frame above them on
+    // the same line, so nested statements on one line aren't counted twice.
+    private long tally(Frame frame, Map<Integer, long[]> lines, List<Integer> order, long[] grandTotal) {
+        long subtree = sampling ? frame.samples : 0;
+        for (Frame child : frame.children()) {
+            subtree += tally(child, lines, order, grandTotal);
+        }
+        if (frame == root) return subtree;
+
+        long self = sampling ? frame.samples : frame.nanos - frame.childNanos;
+        long total = sampling ? subtree : frame.nanos;
+        grandTotal[0] += self;
+
+        long[] row = lines.get(frame.line);
+        if (row == null) {
+            row = new long[3];
+            lines.put(frame.line, row);
+            order.add(frame.line);
+        }
+        row[0] += frame.count;
+        row[1] += self;
+        if (!sameLineAbove(frame)) row[2] += total;
+        return subtree;
+    }
+
+    private static boolean sameLineAbove(Frame frame) {
+        for (Frame above = frame.parent; above.stmt != null; above = above.parent) {
+            if (above.line == frame.line) return true;
+        }
+        return false;
+    }
+
+    private String amount(long value) {
+        return sampling ? Long.toString(value) : String.format("%.3f", value / 1e6);
+    }
+
+    // Collapsed stacks for flame graphs: one line per frame, its path from
+    // the top separated by ';', then its self time in microseconds or its
+    // samples.
+    void writeStacks(PrintWriter out) {
+        writeStacks(root, root.name(), out);
+        out.flush();
+    }
+
+    private void writeStacks(Frame frame, String path, PrintWriter out) {
+        long self = sampling ? frame.samples : (frame.nanos - frame.childNanos) / 1000;
+        if (frame != root && self > 0) out.println(path + " " + self);
+
+        for (Frame child : frame.children()) {
+            writeStacks(child, path + ";" + child.name(), out);
+        }
+    }
+}
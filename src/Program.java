@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Source that has been scanned and parsed once, to be run any number of
+// times by Session.run(Program). Nothing about it changes when it runs, so
+// one Program can be shared by sessions on different threads.
+//
+// An editor or a file watcher can reparse() each new version of the source
+// from the Program of the last one, so only what was edited is parsed again.
+public final class Program {
+    final List<Stmt> statements;
+    private final IncrementalParser parser; // Null if parsed in parallel.
+
+    private Program(List<Stmt> statements, IncrementalParser parser) {
+        this.statements = List.copyOf(statements);
+        this.parser = parser;
+    }
+
+    // Throws a SyntaxError with every error found, if there were any.
+    public static Program compile(String source) {
+        Errors errors = new Errors();
+
+        // Large sources are split up and parsed on all cores. If that finds
+        // anything wrong, parsing again in one go reports it as usual. The
+        // others are parsed so they can be reparsed later.
+        if (ParallelParser.worthIt(source.length())) {
+            List<Stmt> statements = ParallelParser.parse(source.toCharArray());
+            if (statements != null) return new Program(statements, null);
+        }
+
+        IncrementalParser parser = new IncrementalParser();
+        List<Stmt> statements = parser.parse(source, errors);
+        errors.check();
+        return new Program(statements, parser);
+    }
+
+    // Parses a new version of the source this Program was compiled from,
+    // reusing the statements the edits didn't touch. This Program is left as
+    // it is, so on a SyntaxError it's still the last good version. One that
+    // was parsed in parallel has nothing to reuse, so its first reparse
+    // parses everything.
+    public Program reparse(String source) {
+        Errors errors = new Errors();
+        IncrementalParser next = parser != null ? parser.copy() : new IncrementalParser();
+        List<Stmt> statements = next.parse(source, errors);
+        errors.check();
+        return new Program(statements, next);
+    }
+
+    // Collects syntax errors the way Lox prints them.
+    private static class Errors implements ErrorReporter {
+        private final List<String> errors = new ArrayList<>();
+        private int firstLine = 0;
+
+        @Override
+        public void report(int line, String where, String message) {
+            if (errors.isEmpty()) firstLine = line;
+            errors.add("[line " + line + "] Error" + where + ": " + message);
+        }
+
+        void check() {
+            if (!errors.isEmpty()) throw new SyntaxError(firstLine, errors);
+        }
+    }
+}
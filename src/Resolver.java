@@ -0,0 +1,221 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Runs between the parser and the interpreter. Works out how many frames out
+// each local variable reference lives, and which slot of that frame it
+// occupies, so the interpreter doesn't search by name. The answers are
+// stored on the nodes; they only depend on the program, so resolving the
+// same statements again writes the same values.
+//
+// Scopes follow the blocks, but frames don't have to. A block that declares
+// nothing gets no frame, and a block nested in another local scope has its
+// variables given slots in the enclosing frame instead of one of its own.
+// There are no closures to capture a block's variables, and every name is
+// resolved to its slot here, so shadowing works the same either way. Only
+// loop bodies keep their own frame, so a compiled loop has all its locals.
+public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Frame {
+        final Stmt.Block block;
+        final int loop; // How many loops deep the block is.
+        int next = 0; // The first slot no scope still in use holds.
+        int size = 0;
+
+        Frame(Stmt.Block block, int loop) {
+            this.block = block;
+            this.loop = loop;
+        }
+    }
+
+    private static class Scope {
+        final Map<String, Integer> slots = new HashMap<>();
+        final Frame frame;
+        final int depth; // Frames between the globals and this one.
+        final int start; // Where the frame's next slot was when it began.
+
+        Scope(Frame frame, int depth) {
+            this.frame = frame;
+            this.depth = depth;
+            this.start = frame.next;
+        }
+    }
+
+    private final Stack<Scope> scopes = new Stack<>();
+    private int frames = 0;
+    private int loops = 0;
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.declarationCount == 0) {
+            resolve(stmt.statements);
+            return null;
+        }
+
+        beginScope(stmt);
+        resolve(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // The initializer is resolved before the name is declared, so
+        // `var a = a;` still reads the 'a' from an enclosing scope.
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        declare(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        loops++;
+        resolve(stmt.body);
+        loops--;
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        Scope scope = resolveLocal(expr.name);
+        if (scope != null) {
+            expr.depth = frames - scope.depth;
+            expr.slot = scope.slots.get(expr.name.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        resolve(expr.condition);
+        resolve(expr.trueExpr);
+        resolve(expr.falseExpr);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        Scope scope = resolveLocal(expr.name);
+        if (scope != null) {
+            expr.depth = frames - scope.depth;
+            expr.slot = scope.slots.get(expr.name.lexeme);
+        }
+        return null;
+    }
+
+    private void beginScope(Stmt.Block block) {
+        Frame frame = scopes.isEmpty() ? null : scopes.peek().frame;
+        if (frame == null || frame.loop != loops) {
+            frame = new Frame(block, loops);
+            frames++;
+        }
+        scopes.push(new Scope(frame, frames));
+    }
+
+    private void endScope() {
+        Scope scope = scopes.pop();
+        Frame frame = scope.frame;
+
+        // The scope's slots can be reused by the blocks after it.
+        frame.next = scope.start;
+        if (scopes.isEmpty() || scopes.peek().frame != frame) {
+            frame.block.frameSize = frame.size;
+            frames--;
+        }
+    }
+
+    private void declare(Stmt.Var stmt) {
+        if (scopes.isEmpty()) return; // Globals get their slots at run time.
+
+        // Redeclaring a name in the same scope reuses its slot, the old value
+        // can't be reached any more.
+        Scope scope = scopes.peek();
+        Integer slot = scope.slots.get(stmt.name.lexeme);
+        if (slot == null) {
+            Frame frame = scope.frame;
+            slot = frame.next++;
+            frame.size = Math.max(frame.size, frame.next);
+            scope.slots.put(stmt.name.lexeme, slot);
+        }
+        stmt.slot = slot;
+    }
+
+    // The innermost scope declaring the name, or null if it isn't found
+    // and so is assumed to be global.
+    private Scope resolveLocal(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Scope scope = scopes.get(i);
+            if (scope.slots.containsKey(name.lexeme)) return scope;
+        }
+        return null;
+    }
+}
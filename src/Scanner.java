@@ -1,53 +1,141 @@
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// Scans either a whole String up front, or a Reader through a sliding window
+// handing out one token at a time, so only the token being scanned has to be
+// in memory. A ByteBuffer of UTF-8, such as a mapped file, is scanned in
+// place: only lexemes that become Strings are ever decoded.
+public class Scanner implements Iterator<Token> {
+    private static final int WINDOW = 8192;
+
+    // Lexemes of the reserved words by TokenType ordinal, so their tokens
+    // share one String.
+    private static final String[] KEYWORDS = new String[TokenType.values().length];
+    static {
+        TokenType[] keywords = {
+            TokenType.AND, TokenType.CLASS, TokenType.ELSE, TokenType.FALSE,
+            TokenType.FOR, TokenType.FUN, TokenType.IF, TokenType.NIL,
+            TokenType.OR, TokenType.PRINT, TokenType.RETURN, TokenType.SUPER,
+            TokenType.THIS, TokenType.TRUE, TokenType.VAR, TokenType.WHILE,
+        };
+        for (TokenType keyword : keywords) {
+            KEYWORDS[keyword.ordinal()] = keyword.name().toLowerCase();
+        }
+    }
 
-public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    // Powers of ten that are exact doubles.
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    private final ErrorReporter reporter;
+    private final Reader reader; // Null when scanning a String.
+    private final ByteBuffer bytes; // Used instead of the char buffer if set.
+    private char[] buffer;
+    private int limit; // End of the characters read into the buffer.
 
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
-    }
-
-    public Scanner(String source) {
-        this.source = source;
-    }
-
-
-    List<Token> scanTokens() {
+    private TokenBuffer tokens = null; // Set while scanning up front.
+    private Token scanned = null;
+    private boolean done = false;
+    private boolean endedInComment = false;
+
+    public Scanner(String source, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = null;
+        this.bytes = null;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+    }
+
+    // Scans source from start to end as if it began on the given line.
+    // Token offsets are into the whole of source.
+    Scanner(char[] source, int start, int end, int line, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = null;
+        this.bytes = null;
+        this.buffer = source;
+        this.limit = end;
+        this.start = start;
+        this.current = start;
+        this.line = line;
+    }
+
+    public Scanner(Reader reader, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = reader;
+        this.bytes = null;
+        this.buffer = new char[WINDOW];
+        this.limit = 0;
+    }
+
+    // Scans bytes 0 to limit. Identifiers are copied into the char buffer
+    // to be interned, so it only needs to fit one.
+    public Scanner(ByteBuffer bytes, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = null;
+        this.bytes = bytes;
+        this.buffer = new char[64];
+        this.limit = bytes.limit();
+    }
+
+
+    // Scans all of a String into a TokenBuffer, without making any Tokens.
+    TokenBuffer scanTokens() {
+        if (reader != null || bytes != null) {
+            throw new IllegalStateException("Only a String can be scanned up front.");
+        }
+
+        tokens = new TokenBuffer(buffer);
         while (!isAtEnd()) {
             // We are at the start of the next lexeme.
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(TokenType.EOF, current, 0, line);
         return tokens;
     }
 
+    // Whether the source ran out in the middle of a comment, which would have
+    // carried on into anything scanned after it.
+    boolean endedInComment() {
+        return endedInComment;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    // The next token, ending with a single EOF.
+    @Override
+    public Token next() {
+        while (scanned == null) {
+            if (isAtEnd()) {
+                done = true;
+                return new Token(TokenType.EOF, "", null, line);
+            }
+
+            // We are at the start of the next lexeme.
+            start = current;
+            scanToken();
+        }
+
+        Token token = scanned;
+        scanned = null;
+        return token;
+    }
+
     private void scanToken() {
         char c = advance();
         switch(c) {
@@ -71,7 +159,9 @@ public class Scanner {
                 if (match('/')) {
                     while (peek() != '\n' && !isAtEnd()) {
                         advance();
+                        start = current; // Don't hold on to the comment.
                     }
+                    if (isAtEnd()) endedInComment = true;
                 } else if (match('*')) {
                    blockComment();
                 } else {
@@ -92,7 +182,8 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    skipContinuationBytes();
+                    reporter.error(line, "Unexpected character.");
                     break;
                 }
         }
@@ -119,15 +210,62 @@ public class Scanner {
         }
 
         // Check if identifier is a reserved word.
-        String text = source.substring(start, current);
+        TokenType type = keyword();
 
-        TokenType type = keywords.get(text);
-        if (type == null) {
+        if (tokens != null) {
+            addToken(type);
+        } else if (type != TokenType.IDENTIFIER) {
+            scanned = new Token(type, KEYWORDS[type.ordinal()], null, line);
+        } else {
             // User defined identifier.
-            type = TokenType.IDENTIFIER;
+            scanned = new Token(symbol(), line);
+        }
+    }
+
+    // Tells reserved words apart on the characters themselves.
+    private TokenType keyword() {
+        switch (charAt(start)) {
+            case 'a': return keyword(1, TokenType.AND);
+            case 'c': return keyword(1, TokenType.CLASS);
+            case 'e': return keyword(1, TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'a': return keyword(2, TokenType.FALSE);
+                        case 'o': return keyword(2, TokenType.FOR);
+                        case 'u': return keyword(2, TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i': return keyword(1, TokenType.IF);
+            case 'n': return keyword(1, TokenType.NIL);
+            case 'o': return keyword(1, TokenType.OR);
+            case 'p': return keyword(1, TokenType.PRINT);
+            case 'r': return keyword(1, TokenType.RETURN);
+            case 's': return keyword(1, TokenType.SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (charAt(start + 1)) {
+                        case 'h': return keyword(2, TokenType.THIS);
+                        case 'r': return keyword(2, TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return keyword(1, TokenType.VAR);
+            case 'w': return keyword(1, TokenType.WHILE);
         }
+        return TokenType.IDENTIFIER;
+    }
 
-        addToken(type);
+    // Checks the rest of the lexeme, the first known characters already matched.
+    private TokenType keyword(int known, TokenType type) {
+        String keyword = KEYWORDS[type.ordinal()];
+        if (current - start != keyword.length()) return TokenType.IDENTIFIER;
+
+        for (int i = known; i < keyword.length(); i++) {
+            if (charAt(start + i) != keyword.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
 
     private void number() {
@@ -143,8 +281,7 @@ public class Scanner {
             while (isDigit(peek())) { advance(); }
         }
 
-        Double number = Double.parseDouble(source.substring(start, current));
-        addToken(TokenType.NUMBER, number);
+        addToken(TokenType.NUMBER);
     }
 
     private void string() {
@@ -154,36 +291,39 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
         advance(); // The closing ".
-
-        // Trim surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, value);
+        addToken(TokenType.STRING);
     }
 
     private void blockComment() {
         while ((peek() != '*') && (peekNext() != '/') && !isAtEnd()) {
             if (peek() == '\n') { line++; }
             advance();
+            start = current;
         }
 
         if (isAtEnd()) {
             // It's valid to have a non-terminated block comment.
+            endedInComment = true;
             return;
         }
 
 
         advance(); // Eat closing '*'.
+        if (isAtEnd()) {
+            endedInComment = true;
+            return;
+        }
         advance(); // Eat closing '/'.
     }
 
     private boolean match(char expected) {
         if (isAtEnd()) { return false; }
-        if (source.charAt(current) != expected) { return false; }
+        if (charAt(current) != expected) { return false; }
 
         current++;
         return true;
@@ -191,30 +331,142 @@ public class Scanner {
 
     private char peek() {
         if (isAtEnd()) { return '\0'; }
-        return source.charAt(current);
+        return charAt(current);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) { return '\0'; }
-        return source.charAt(current + 1);
+        if (!available(2)) { return '\0'; }
+        return charAt(current + 1);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(1);
     }
 
     private char advance() {
+        if (current >= limit) available(1);
         current++;
-        return source.charAt(current - 1);
+        return charAt(current - 1);
     }
 
+    // Bytes are handed out as chars; anything outside ASCII can only
+    // matter inside a string or comment, which is decoded as a whole.
+    private char charAt(int index) {
+        if (bytes != null) return (char)(bytes.get(index) & 0xff);
+        return buffer[index];
+    }
 
-    private void addToken(TokenType tokenType) {
-        addToken(tokenType, null);
+    private String text(int from, int to) {
+        if (bytes == null) return new String(buffer, from, to - from);
+
+        byte[] utf8 = new byte[to - from];
+        bytes.get(from, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private Symbol symbol() {
+        if (bytes == null) return Symbol.intern(buffer, start, current);
+        return Symbol.intern(buffer, 0, widen());
+    }
+
+    private double numberValue() {
+        if (bytes == null) return parseNumber(buffer, start, current);
+        return parseNumber(buffer, 0, widen());
+    }
+
+    // Copies an ASCII lexeme's bytes into the char buffer, one char each.
+    private int widen() {
+        int length = current - start;
+        if (length > buffer.length) buffer = new char[Math.max(length, buffer.length * 2)];
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (char)bytes.get(start + i);
+        }
+        return length;
+    }
+
+    // Value of a number lexeme. Up to 15 digits fit a double exactly, and so
+    // does a power of ten up to 1e22, so dividing one by the other is
+    // correctly rounded; anything longer is left to Double.parseDouble().
+    static double parseNumber(char[] source, int start, int end) {
+        long digits = 0;
+        int count = 0;
+        int decimals = -1;
+        for (int i = start; i < end; i++) {
+            char c = source[i];
+            if (c == '.') {
+                decimals = 0;
+                continue;
+            }
+            digits = digits * 10 + (c - '0');
+            if (digits != 0) count++;
+            if (decimals >= 0) decimals++;
+        }
+
+        if (count > 15 || decimals >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(new String(source, start, end - start));
+        }
+        if (decimals <= 0) return digits;
+        return digits / POWERS_OF_TEN[decimals];
     }
 
-    private void addToken(TokenType tokenType, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(tokenType, text, literal, line));
+    // So a multi-byte character outside a string is reported once.
+    private void skipContinuationBytes() {
+        if (bytes == null) return;
+        while (!isAtEnd() && (bytes.get(current) & 0xc0) == 0x80) {
+            current++;
+        }
+    }
+
+    // Whether there are at least count characters from current, reading
+    // more from the Reader if needed.
+    private boolean available(int count) {
+        if (current + count <= limit) return true;
+
+        while (current + count > limit) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    // Slides the current lexeme to the front of the buffer and reads after
+    // it. The buffer only grows for a single lexeme longer than the window.
+    private boolean fill() {
+        if (reader == null) return false;
+
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            current -= start;
+            limit -= start;
+            start = 0;
+        } else if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read <= 0) return false;
+            limit += read;
+            return true;
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+
+    private void addToken(TokenType tokenType) {
+        if (tokens != null) {
+            tokens.add(tokenType, start, current - start, line);
+            return;
+        }
+
+        String text = text(start, current);
+        Object literal = null;
+        if (tokenType == TokenType.NUMBER) {
+            literal = numberValue();
+        } else if (tokenType == TokenType.STRING) {
+            // Trim surrounding quotes.
+            literal = text(start + 1, current - 1);
+        }
+        scanned = new Token(tokenType, text, literal, line);
     }
 }
@@ -0,0 +1,272 @@
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+
+// Everything one running program owns: its backend and the globals in it,
+// where its prints go, where its errors go and whether there were any.
+// Sessions share nothing that changes except the Symbol table, which is
+// safe to use from any thread, so separate sessions can run on separate
+// threads at once. A single session is only used by one thread at a time.
+public final class Session implements ErrorReporter {
+    enum Backend { INTERPRETER, VM, CLOSURES }
+
+    private final Backend backend;
+    private final Output output;
+    private final PrintWriter errors;
+
+    // Only the one for the backend is made.
+    private final Interpreter interpreter;
+    private final VM vm;
+    private final ClosureCompiler closures;
+
+    private boolean optimize = false;
+    private Stats stats = null;
+    private String script = "<script>"; // Name of the source, for events.
+    private boolean hadError = false;
+    private RuntimeError runtimeError = null; // The last one reported.
+
+    // Sessions made by embedders make the metrics visible over JMX.
+    public Session(OutputStream out, OutputStream err) {
+        this(Backend.INTERPRETER, new Output(out, 0), new PrintWriter(err, true));
+        LoxMetrics.register();
+    }
+
+    public Session(Writer out, Writer err) {
+        this(Backend.INTERPRETER, new Output(out, 0), new PrintWriter(err, true));
+        LoxMetrics.register();
+    }
+
+    Session(Backend backend, Output output, PrintWriter errors) {
+        this.backend = backend;
+        this.output = output;
+        this.errors = errors;
+
+        this.interpreter = backend == Backend.INTERPRETER ? new Interpreter(output) : null;
+        this.vm = backend == Backend.VM ? new VM(output) : null;
+        this.closures = backend == Backend.CLOSURES ? new ClosureCompiler(output) : null;
+    }
+
+    void disableJit() {
+        if (interpreter != null) interpreter.disableJit();
+    }
+
+    void optimize() {
+        optimize = true;
+    }
+
+    public void setScript(String script) {
+        this.script = script;
+        if (interpreter != null) interpreter.script = script;
+    }
+
+    void collectStats(Stats stats) {
+        this.stats = stats;
+    }
+
+    // Only the Interpreter can be profiled; other backends ignore it.
+    void profile(Profiler profiler) {
+        if (interpreter != null) interpreter.setProfiler(profiler);
+    }
+
+    public void run(String source) {
+        List<Stmt> statements = parse(source);
+
+        if (hadError) return; // Stop if there's a syntax error.
+
+        execute(statements);
+    }
+
+    public void run(Program program) {
+        execute(program.statements);
+    }
+
+    void run(Parser parser) {
+        LoxEvents.Parse event = new LoxEvents.Parse();
+        event.begin();
+        if (stats != null) stats.begin();
+        List<Stmt> statements = parser.parse();
+        if (stats != null) stats.end(Stats.Phase.PARSE);
+        commit(event, statements);
+
+        if (hadError) return; // Stop if there's a syntax error.
+
+        execute(statements);
+    }
+
+    List<Stmt> parse(String source) {
+        // In parallel as in Program.compile(), unless each phase is being
+        // measured on its own.
+        if (stats == null && ParallelParser.worthIt(source.length())) {
+            LoxEvents.Parse event = new LoxEvents.Parse();
+            event.begin();
+            List<Stmt> statements = ParallelParser.parse(source.toCharArray());
+            if (statements != null) {
+                commit(event, statements);
+                return statements;
+            }
+        }
+
+        LoxEvents.Scan scan = new LoxEvents.Scan();
+        scan.begin();
+        if (stats != null) stats.begin();
+        TokenBuffer tokens = new Scanner(source, this).scanTokens();
+        if (stats != null) {
+            stats.end(Stats.Phase.SCAN);
+            stats.countTokens(tokens.size());
+        }
+        scan.end();
+        if (scan.shouldCommit()) {
+            scan.script = script;
+            scan.tokens = tokens.size();
+            scan.commit();
+        }
+
+        LoxEvents.Parse parse = new LoxEvents.Parse();
+        parse.begin();
+        if (stats != null) stats.begin();
+        List<Stmt> statements = new Parser(tokens.cursor(), this).parse();
+        if (stats != null) stats.end(Stats.Phase.PARSE);
+        commit(parse, statements);
+        return statements;
+    }
+
+    private void commit(LoxEvents.Parse event, List<Stmt> statements) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.script = script;
+            event.statements = statements.size();
+            event.commit();
+        }
+    }
+
+    void execute(List<Stmt> statements) {
+        if (stats != null) stats.countNodes(statements);
+        if (optimize) statements = new Optimizer().optimize(statements);
+
+        if (stats != null) stats.begin();
+        LoxEvents.Execute event = new LoxEvents.Execute();
+        event.begin();
+        try {
+            switch (backend) {
+                case VM:
+                    Chunk chunk = new Compiler(vm, this).compile(statements);
+                    if (chunk == null) return;
+
+                    vm.interpret(chunk);
+                    break;
+                case CLOSURES:
+                    closures.interpret(statements);
+                    break;
+                default:
+                    new Resolver().resolve(statements);
+
+                    interpreter.interpret(statements);
+            }
+        } catch (RuntimeError error) {
+            runtimeError(error);
+        } finally {
+            if (stats != null) endExecute();
+            event.end();
+            if (event.shouldCommit()) {
+                event.script = script;
+                event.commit();
+            }
+        }
+    }
+
+    private void endExecute() {
+        stats.end(Stats.Phase.EXECUTE);
+        if (interpreter != null) {
+            stats.environments = interpreter.environments;
+            stats.lookups = interpreter.lookups;
+        }
+    }
+
+    // Sets a global variable before the program runs, or between runs.
+    // Java numbers become Lox numbers and any CharSequence a string.
+    public void define(String name, Object value) {
+        if (!isIdentifier(name)) {
+            throw new IllegalArgumentException("'" + name + "' can't be a Lox variable name.");
+        }
+
+        Symbol symbol = Symbol.intern(name);
+        Object converted = fromJava(value);
+        switch (backend) {
+            case VM: vm.define(symbol, converted); break;
+            case CLOSURES: closures.globals.define(symbol, converted); break;
+            default: interpreter.globals.define(symbol, converted);
+        }
+    }
+
+    // The value of a global variable, null if it's nil or not defined.
+    public Object get(String name) {
+        if (!isIdentifier(name)) return null;
+
+        Symbol symbol = Symbol.intern(name);
+        switch (backend) {
+            case VM: return vm.get(symbol);
+            case CLOSURES: return closures.globals.peek(symbol);
+            default: return interpreter.globals.peek(symbol);
+        }
+    }
+
+    private static boolean isIdentifier(String name) {
+        boolean[] failed = { false };
+        TokenBuffer tokens = new Scanner(name, (line, where, message) -> failed[0] = true).scanTokens();
+        return !failed[0] && tokens.size() == 2 && tokens.type(0) == TokenType.IDENTIFIER &&
+                tokens.start(0) == 0 && tokens.end(0) == name.length();
+    }
+
+    private static Object fromJava(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof String || value instanceof Double) {
+            return value;
+        }
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        if (value instanceof CharSequence || value instanceof Character) return value.toString();
+        throw new IllegalArgumentException("Lox has no values of type " + value.getClass().getName() + ".");
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return runtimeError != null;
+    }
+
+    RuntimeError runtimeError() {
+        return runtimeError;
+    }
+
+    // Forgets earlier syntax errors, so the REPL can go on to the next line.
+    void clearError() {
+        hadError = false;
+    }
+
+    public void flush() {
+        output.flush();
+    }
+
+    @Override
+    public void report(int line, String where, String message) {
+        output.flush(); // Keep the error after what was printed before it.
+        errors.println("[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+
+    private void runtimeError(RuntimeError error) {
+        output.flush();
+        errors.println(error.getMessage() + "\n[line " + error.line + "]");
+        runtimeError = error;
+        LoxMetrics.INSTANCE.runtimeError();
+
+        LoxEvents.Error event = new LoxEvents.Error();
+        if (event.shouldCommit()) {
+            event.script = script;
+            event.line = error.line;
+            event.message = error.getMessage();
+            event.commit();
+        }
+    }
+}
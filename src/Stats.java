@@ -0,0 +1,192 @@
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+// What each phase of a run cost, for --stats: wall time, CPU time and bytes
+// allocated by the thread running it, plus counts of what was made and done.
+//
+// Scanning and parsing are measured separately only when the source is
+// scanned up front. With --stream or --mmap the Scanner runs as the Parser
+// asks for tokens, so all of it counts as parsing. Execution includes the
+// Resolver or Compiler.
+final class Stats {
+    enum Phase { SCAN, PARSE, EXECUTE }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+            THREADS instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)THREADS : null;
+
+    private final boolean cpuTime = THREADS.isCurrentThreadCpuTimeSupported();
+    private final boolean allocations = ALLOCATIONS != null && ALLOCATIONS.isThreadAllocatedMemorySupported();
+
+    private final long[] wall = new long[Phase.values().length];
+    private final long[] cpu = new long[Phase.values().length];
+    private final long[] allocated = new long[Phase.values().length];
+
+    // Where the phase being measured started.
+    private long startWall;
+    private long startCpu;
+    private long startAllocated;
+
+    private long tokens = -1; // Only known when scanned up front.
+    long nodes = 0; // In the trees as parsed, each counted once however often it runs.
+    long environments = -1; // Only known for the Interpreter.
+    long lookups = -1;
+
+    Stats() {
+        if (cpuTime && !THREADS.isThreadCpuTimeEnabled()) THREADS.setThreadCpuTimeEnabled(true);
+        if (allocations && !ALLOCATIONS.isThreadAllocatedMemoryEnabled()) {
+            ALLOCATIONS.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    void begin() {
+        startWall = System.nanoTime();
+        startCpu = cpuTime ? THREADS.getCurrentThreadCpuTime() : 0;
+        startAllocated = allocations ? ALLOCATIONS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    void end(Phase phase) {
+        wall[phase.ordinal()] += System.nanoTime() - startWall;
+        if (cpuTime) cpu[phase.ordinal()] += THREADS.getCurrentThreadCpuTime() - startCpu;
+        if (allocations) allocated[phase.ordinal()] += ALLOCATIONS.getCurrentThreadAllocatedBytes() - startAllocated;
+    }
+
+    void countTokens(int count) {
+        tokens = Math.max(tokens, 0) + count;
+    }
+
+    void countNodes(List<Stmt> statements) {
+        NodeCounter counter = new NodeCounter();
+        for (Stmt statement : statements) {
+            counter.count(statement);
+        }
+        nodes += counter.nodes;
+    }
+
+    void report(PrintWriter out) {
+        out.printf("%-8s %12s %12s %16s%n", "Phase", "Wall ms", "CPU ms", "Allocated bytes");
+        for (Phase phase : Phase.values()) {
+            int i = phase.ordinal();
+            out.printf("%-8s %12.3f %12s %16s%n", phase.name().toLowerCase(), wall[i] / 1e6,
+                    cpuTime ? String.format("%.3f", cpu[i] / 1e6) : "n/a",
+                    allocations ? String.format("%,d", allocated[i]) : "n/a");
+        }
+
+        out.printf("%s tokens, %,d AST nodes parsed, %s environments, %s variable lookups%n",
+                count(tokens), nodes, count(environments), count(lookups));
+        out.flush();
+    }
+
+    private static String count(long value) {
+        return value < 0 ? "n/a" : String.format("%,d", value);
+    }
+
+    private static class NodeCounter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        long nodes = 0;
+
+        void count(Stmt stmt) {
+            if (stmt == null) return;
+            nodes++;
+            stmt.accept(this);
+        }
+
+        void count(Expr expr) {
+            if (expr == null) return;
+            nodes++;
+            expr.accept(this);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                count(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            count(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            count(stmt.condition);
+            count(stmt.thenBranch);
+            count(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            count(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            count(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            count(stmt.condition);
+            count(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            count(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            count(expr.left);
+            count(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            count(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            count(expr.left);
+            count(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            count(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            count(expr.condition);
+            count(expr.trueExpr);
+            count(expr.falseExpr);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.List;
 
 abstract class Stmt {
@@ -7,34 +8,67 @@ abstract class Stmt {
         R visitIfStmt(If stmt);
         R visitPrintStmt(Print stmt);
         R visitVarStmt(Var stmt);
+        R visitWhileStmt(While stmt);
     }
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    abstract void write(AstWriter out) throws IOException;
+
+    // Reads the fields of a node written by write(), after its tag.
+    static Stmt read(int tag, AstReader in) throws IOException {
+        switch (tag) {
+            case 0: return new Block(in.readStatements(), in.readInt());
+            case 1: return new Expression(in.readExpr(), in.readInt());
+            case 2: return new If(in.readExpr(), in.readStmt(), in.readStmt(), in.readInt());
+            case 3: return new Print(in.readExpr(), in.readInt());
+            case 4: return new Var(in.readToken(), in.readExpr());
+            case 5: return new While(in.readExpr(), in.readStmt(), in.readInt());
+        }
+        throw new IOException("Unknown Stmt tag " + tag + ".");
+    }
+
 
     static class Block extends Stmt {
         final List<Stmt> statements;
+        final int declarationCount;
+        int frameSize = -1;
 
-        Block(List<Stmt> statements) {
+        Block(List<Stmt> statements, int declarationCount) {
             this.statements = statements;
+            this.declarationCount = declarationCount;
         }
 
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitBlockStmt(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(0);
+            out.writeStatements(statements);
+            out.writeInt(declarationCount);
+        }
     }
 
 
     static class Expression extends Stmt {
         final Expr expression;
+        final int line;
 
-        Expression(Expr expression) {
+        Expression(Expr expression, int line) {
             this.expression = expression;
+            this.line = line;
         }
 
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitExpressionStmt(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(1);
+            out.writeExpr(expression);
+            out.writeInt(line);
+        }
     }
 
 
@@ -42,35 +76,54 @@ abstract class Stmt {
         final Expr condition;
         final Stmt thenBranch;
         final Stmt elseBranch;
+        final int line;
 
-        If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+        If(Expr condition, Stmt thenBranch, Stmt elseBranch, int line) {
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
+            this.line = line;
         }
 
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitIfStmt(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(2);
+            out.writeExpr(condition);
+            out.writeStmt(thenBranch);
+            out.writeStmt(elseBranch);
+            out.writeInt(line);
+        }
     }
 
 
     static class Print extends Stmt {
         final Expr expression;
+        final int line;
 
-        Print(Expr expression) {
+        Print(Expr expression, int line) {
             this.expression = expression;
+            this.line = line;
         }
 
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitPrintStmt(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(3);
+            out.writeExpr(expression);
+            out.writeInt(line);
+        }
     }
 
 
     static class Var extends Stmt {
         final Token name;
         final Expr initializer;
+        int slot = -1;
 
         Var(Token name, Expr initializer) {
             this.name = name;
@@ -80,5 +133,36 @@ abstract class Stmt {
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitVarStmt(this);
         }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(4);
+            out.writeToken(name);
+            out.writeExpr(initializer);
+        }
+    }
+
+
+    static class While extends Stmt {
+        final Expr condition;
+        final Stmt body;
+        final int line;
+        Jit.Loop loop;
+
+        While(Expr condition, Stmt body, int line) {
+            this.condition = condition;
+            this.body = body;
+            this.line = line;
+        }
+
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitWhileStmt(this);
+        }
+
+        void write(AstWriter out) throws IOException {
+            out.writeTag(5);
+            out.writeExpr(condition);
+            out.writeStmt(body);
+            out.writeInt(line);
+        }
     }
 }
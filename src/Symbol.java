@@ -0,0 +1,131 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+// An interned identifier. Every occurrence of the same name in any source
+// shares one Symbol while any of them is in use, so names compare by
+// identity and hash cheaply as map keys, such as for the slots of global
+// variables.
+public final class Symbol {
+    final String name;
+    private final int hash;
+
+    private Symbol(String name, int hash) {
+        this.name = name;
+        this.hash = hash;
+    }
+
+    // Equal only to itself, but hashes by name so maps don't need the
+    // identity hash.
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    // Open addressing over the symbols, keyed by the characters of the name.
+    // Entries are only ever added, and a rebuilt table is only published once
+    // it's filled, so lookups can read whichever table is current without
+    // the lock; only adding a symbol takes it.
+    //
+    // The table only holds its symbols weakly, so names from programs that
+    // are gone don't stay around for the life of the process. A cleared
+    // entry is skipped over like a used one until the next rebuild drops it.
+    private static final class Entry extends WeakReference<Symbol> {
+        final int hash;
+
+        Entry(Symbol symbol) {
+            super(symbol);
+            this.hash = symbol.hash;
+        }
+    }
+
+    private static final int MIN_CAPACITY = 256;
+
+    private static volatile Entry[] table = new Entry[MIN_CAPACITY];
+    private static int used = 0; // Entries in the table, cleared or not.
+
+    static Symbol intern(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    // Looks the name up without copying it out of the source first; a String
+    // is only made the first time a name is seen.
+    static Symbol intern(char[] source, int start, int end) {
+        int hash = hash(source, start, end);
+        Symbol symbol = find(table, source, start, end, hash);
+        if (symbol != null) return symbol;
+
+        synchronized (Symbol.class) {
+            symbol = find(table, source, start, end, hash);
+            if (symbol != null) return symbol;
+            return add(new String(source, start, end - start), hash);
+        }
+    }
+
+    private static Symbol find(Entry[] table, char[] source, int start, int end, int hash) {
+        int index = hash & (table.length - 1);
+        while (table[index] != null) {
+            Entry entry = table[index];
+            if (entry.hash == hash) {
+                Symbol symbol = entry.get();
+                if (symbol != null && matches(symbol.name, source, start, end)) return symbol;
+            }
+            index = (index + 1) & (table.length - 1);
+        }
+        return null;
+    }
+
+    private static Symbol add(String name, int hash) {
+        Symbol symbol = new Symbol(name, hash);
+        used++;
+
+        // Keep the table at most half full. Rebuilding sizes it for the
+        // symbols still alive, so it can shrink again too.
+        if (used * 2 > table.length) {
+            List<Entry> live = new ArrayList<>();
+            for (Entry entry : table) {
+                if (entry != null && entry.get() != null) live.add(entry);
+            }
+
+            int capacity = MIN_CAPACITY;
+            while (live.size() * 4 > capacity) capacity *= 2;
+
+            Entry[] rebuilt = new Entry[capacity];
+            for (Entry entry : live) insert(rebuilt, entry);
+            table = rebuilt;
+            used = live.size() + 1;
+        }
+        insert(table, new Entry(symbol));
+        return symbol;
+    }
+
+    private static void insert(Entry[] table, Entry entry) {
+        int index = entry.hash & (table.length - 1);
+        while (table[index] != null) {
+            index = (index + 1) & (table.length - 1);
+        }
+        table[index] = entry;
+    }
+
+    // Same as String.hashCode(), spread so short names don't cluster.
+    private static int hash(char[] source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, char[] source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source[start + i]) return false;
+        }
+        return true;
+    }
+}
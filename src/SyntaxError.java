@@ -0,0 +1,16 @@
+import java.util.List;
+
+// Thrown by Program.compile() when the source has syntax errors. The message
+// has one line per error, the way Lox prints them.
+public class SyntaxError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final int line; // Of the first error.
+    final List<String> errors;
+
+    SyntaxError(int line, List<String> errors) {
+        super(String.join("\n", errors));
+        this.line = line;
+        this.errors = List.copyOf(errors);
+    }
+}
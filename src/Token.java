@@ -3,12 +3,22 @@ public class Token {
     final String lexeme; // [var] [language] [=] ["lox"] [;]
     final Object literal; // Text representation, e.g. let ["language"] = ["lox"];
     final int line;
+    final Symbol symbol; // Only set for identifiers.
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = null;
+    }
+
+    public Token(Symbol symbol, int line) {
+        this.type = TokenType.IDENTIFIER;
+        this.lexeme = symbol.name;
+        this.literal = null;
+        this.line = line;
+        this.symbol = symbol;
     }
 
     @Override
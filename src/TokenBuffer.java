@@ -0,0 +1,143 @@
+import java.util.Arrays;
+
+// Tokens scanned from a String, kept as parallel arrays that point back into
+// the source instead of as Token objects. A Token, with its lexeme and
+// literal, is only made when something asks for one.
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final char[] source;
+
+    private int[] types = new int[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private int count = 0;
+
+    TokenBuffer(char[] source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        types[count] = type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    String lexeme(int index) {
+        return new String(source, starts[index], lengths[index]);
+    }
+
+    Token token(int index) {
+        TokenType type = type(index);
+        int start = starts[index];
+        int length = lengths[index];
+
+        switch (type) {
+            case IDENTIFIER:
+                return new Token(Symbol.intern(source, start, start + length), lines[index]);
+            case NUMBER: {
+                double value = Scanner.parseNumber(source, start, start + length);
+                return new Token(type, lexeme(index), value, lines[index]);
+            }
+            case STRING: {
+                // Trim surrounding quotes.
+                String value = new String(source, start + 1, length - 2);
+                return new Token(type, lexeme(index), value, lines[index]);
+            }
+            default:
+                return new Token(type, lexeme(index), null, lines[index]);
+        }
+    }
+
+    // Offsets into the source of the token's first character and just past
+    // its last.
+    int start(int index) {
+        return starts[index];
+    }
+
+    int end(int index) {
+        return starts[index] + lengths[index];
+    }
+
+    // Tokens carry the line they end on, which only differs from the one
+    // they start on for strings.
+    int startLine(int index) {
+        int line = lines[index];
+        if (type(index) == TokenType.STRING) {
+            for (int i = starts[index]; i < end(index); i++) {
+                if (source[i] == '\n') line--;
+            }
+        }
+        return line;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    final class Cursor implements TokenCursor {
+        private int current = 0;
+
+        // Index of the current token.
+        int index() {
+            return current;
+        }
+
+        @Override
+        public TokenType type() {
+            return TokenBuffer.this.type(current);
+        }
+
+        @Override
+        public TokenType previousType() {
+            return TokenBuffer.this.type(current - 1);
+        }
+
+        @Override
+        public Token current() {
+            return token(current);
+        }
+
+        @Override
+        public Token previous() {
+            return token(current - 1);
+        }
+
+        @Override
+        public int line() {
+            return lines[current];
+        }
+
+        @Override
+        public int previousLine() {
+            return lines[current - 1];
+        }
+
+        @Override
+        public void advance() {
+            current++;
+        }
+    }
+}
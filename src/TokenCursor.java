@@ -0,0 +1,62 @@
+import java.util.Iterator;
+
+// How the Parser walks the tokens, whether they were all scanned into a
+// TokenBuffer or come one at a time from a lazy Scanner. Types can be checked
+// without a Token; one is only made for tokens the parser keeps or reports.
+interface TokenCursor {
+    // Current token yet to be consumed.
+    TokenType type();
+    Token current();
+    int line();
+
+    // Most recently consumed token.
+    TokenType previousType();
+    Token previous();
+    int previousLine();
+
+    // Never called once the current token is EOF.
+    void advance();
+
+    static TokenCursor of(Iterator<Token> tokens) {
+        return new TokenCursor() {
+            private Token current = tokens.next();
+            private Token previous = null;
+
+            @Override
+            public TokenType type() {
+                return current.type;
+            }
+
+            @Override
+            public Token current() {
+                return current;
+            }
+
+            @Override
+            public int line() {
+                return current.line;
+            }
+
+            @Override
+            public TokenType previousType() {
+                return previous.type;
+            }
+
+            @Override
+            public Token previous() {
+                return previous;
+            }
+
+            @Override
+            public int previousLine() {
+                return previous.line;
+            }
+
+            @Override
+            public void advance() {
+                previous = current;
+                current = tokens.next();
+            }
+        };
+    }
+}
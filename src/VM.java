@@ -0,0 +1,348 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Stack machine that runs the Chunks produced by the Compiler. Mirrors the
+// Interpreter's semantics and error messages exactly.
+//
+// Values are kept as tagged slots: a stack slot (or global) whose tag is
+// NUMBER holds its value unboxed in the parallel double array, anything else
+// (nil, booleans, strings) is the tag itself. Arithmetic never allocates.
+public class VM {
+    static final Object NUMBER = new Object();
+    private static final Object UNDEFINED = new Object(); // Global never declared.
+
+    // Globals get slots in the order this VM first sees them.
+    private final Map<Symbol, Integer> globalSlots = new HashMap<>();
+    private Symbol[] globalNames = new Symbol[16];
+    private Object[] globalTags = new Object[16];
+    private double[] globalNumbers = new double[16];
+
+    private Object[] tags = new Object[256];
+    private double[] numbers = new double[256];
+    private int stackTop = 0;
+
+    private final Output output;
+
+    VM(Output output) {
+        this.output = output;
+    }
+
+    // A RuntimeError stops the chunk and is left to the caller to report.
+    void interpret(Chunk chunk) {
+        run(chunk);
+    }
+
+    // Slot for a global, shared by every chunk this VM runs.
+    int globalSlot(Symbol name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null) return slot;
+
+        slot = globalSlots.size();
+        if (slot == globalTags.length) {
+            globalNames = Arrays.copyOf(globalNames, slot * 2);
+            globalTags = Arrays.copyOf(globalTags, slot * 2);
+            globalNumbers = Arrays.copyOf(globalNumbers, slot * 2);
+        }
+        globalNames[slot] = name;
+        globalTags[slot] = UNDEFINED;
+        globalSlots.put(name, slot);
+        return slot;
+    }
+
+    // Globals set from outside the program, by Session.define().
+    void define(Symbol name, Object value) {
+        int slot = globalSlot(name);
+        globalTags[slot] = value instanceof Double ? NUMBER : value;
+        globalNumbers[slot] = value instanceof Double ? (double)value : 0;
+    }
+
+    // Null if it's nil or not defined.
+    Object get(Symbol name) {
+        Integer slot = globalSlots.get(name);
+        if (slot == null || globalTags[slot] == UNDEFINED) return null;
+        return globalTags[slot] == NUMBER ? (Object)globalNumbers[slot] : globalTags[slot];
+    }
+
+    private void run(Chunk chunk) {
+        byte[] code = chunk.code();
+        Object[] constants = chunk.constants();
+        Object[] constantTags = chunk.constantTags();
+        double[] constantNumbers = chunk.constantNumbers();
+        stackTop = 0;
+        int ip = 0;
+
+        while (true) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT: {
+                    int index = readShort(code, ip);
+                    push(constantTags[index], constantNumbers[index]);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.NIL: push(null, 0); break;
+                case OpCode.TRUE: push(Boolean.TRUE, 0); break;
+                case OpCode.FALSE: push(Boolean.FALSE, 0); break;
+                case OpCode.POP: stackTop--; break;
+
+                case OpCode.GET_LOCAL: {
+                    int slot = readShort(code, ip);
+                    if (tags[slot] == null) {
+                        String name = (String)constants[readShort(code, ip + 2)];
+                        throw uninitialized(chunk, ip, name);
+                    }
+                    push(tags[slot], numbers[slot]);
+                    ip += 4;
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = readShort(code, ip);
+                    tags[slot] = tags[stackTop - 1];
+                    numbers[slot] = numbers[stackTop - 1];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    Object tag = globalTags[slot];
+                    if (tag == UNDEFINED) throw undefined(chunk, ip, globalNames[slot].name);
+                    if (tag == null) throw uninitialized(chunk, ip, globalNames[slot].name);
+                    push(tag, globalNumbers[slot]);
+                    ip += 2;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    stackTop--;
+                    globalTags[slot] = tags[stackTop];
+                    globalNumbers[slot] = numbers[stackTop];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    if (globalTags[slot] == UNDEFINED) throw undefined(chunk, ip, globalNames[slot].name);
+                    globalTags[slot] = tags[stackTop - 1];
+                    globalNumbers[slot] = numbers[stackTop - 1];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.STORE_LOCAL: {
+                    int slot = readShort(code, ip);
+                    stackTop--;
+                    tags[slot] = tags[stackTop];
+                    numbers[slot] = numbers[stackTop];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.STORE_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    if (globalTags[slot] == UNDEFINED) throw undefined(chunk, ip, globalNames[slot].name);
+                    stackTop--;
+                    globalTags[slot] = tags[stackTop];
+                    globalNumbers[slot] = numbers[stackTop];
+                    ip += 2;
+                    break;
+                }
+
+                case OpCode.EQUAL: {
+                    stackTop--;
+                    setBoolean(isEqual(stackTop - 1, stackTop));
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    stackTop--;
+                    setBoolean(!isEqual(stackTop - 1, stackTop));
+                    break;
+                }
+                case OpCode.GREATER: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop--;
+                    setBoolean(numbers[stackTop - 1] > numbers[stackTop]);
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop--;
+                    setBoolean(numbers[stackTop - 1] >= numbers[stackTop]);
+                    break;
+                }
+                case OpCode.LESS: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop--;
+                    setBoolean(numbers[stackTop - 1] < numbers[stackTop]);
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop--;
+                    setBoolean(numbers[stackTop - 1] <= numbers[stackTop]);
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object left = tags[stackTop - 2];
+                    Object right = tags[stackTop - 1];
+                    stackTop--;
+                    if (left == NUMBER && right == NUMBER) {
+                        numbers[stackTop - 1] += numbers[stackTop];
+                    } else if (left instanceof String && right instanceof String) {
+                        tags[stackTop - 1] = (String)left + (String)right;
+                    } else if (left instanceof String || right instanceof String) {
+                        tags[stackTop - 1] = stringify(stackTop - 1) + stringify(stackTop);
+                    } else {
+                        throw new RuntimeError(chunk.line(ip - 1), "Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop--;
+                    numbers[stackTop - 1] -= numbers[stackTop];
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop--;
+                    numbers[stackTop - 1] *= numbers[stackTop];
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop--;
+                    if (numbers[stackTop] == 0) {
+                        throw new RuntimeError(chunk.line(ip - 1), "Unable to divide by 0.");
+                    }
+                    numbers[stackTop - 1] /= numbers[stackTop];
+                    break;
+                }
+                case OpCode.NOT: setBoolean(!isTruthy(stackTop - 1)); break;
+                case OpCode.NEGATE: {
+                    if (tags[stackTop - 1] != NUMBER) {
+                        throw new RuntimeError(chunk.line(ip - 1), "Operand must be a number.");
+                    }
+                    numbers[stackTop - 1] = -numbers[stackTop - 1];
+                    break;
+                }
+
+                case OpCode.PRINT: {
+                    stackTop--;
+                    if (tags[stackTop] == NUMBER) {
+                        output.println(numbers[stackTop]);
+                    } else {
+                        output.println(tags[stackTop]);
+                    }
+                    break;
+                }
+                case OpCode.JUMP: {
+                    ip += readShort(code, ip) + 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    if (isTruthy(stackTop - 1)) {
+                        ip += 2;
+                    } else {
+                        ip += readShort(code, ip) + 2;
+                    }
+                    break;
+                }
+                case OpCode.POP_JUMP_IF_FALSE: {
+                    stackTop--;
+                    if (isTruthy(stackTop)) {
+                        ip += 2;
+                    } else {
+                        ip += readShort(code, ip) + 2;
+                    }
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop -= 2;
+                    ip += numbers[stackTop] > numbers[stackTop + 1] ? 2 : readShort(code, ip) + 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop -= 2;
+                    ip += numbers[stackTop] >= numbers[stackTop + 1] ? 2 : readShort(code, ip) + 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_LESS: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop -= 2;
+                    ip += numbers[stackTop] < numbers[stackTop + 1] ? 2 : readShort(code, ip) + 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL: {
+                    checkNumberOperands(chunk, ip);
+                    stackTop -= 2;
+                    ip += numbers[stackTop] <= numbers[stackTop + 1] ? 2 : readShort(code, ip) + 2;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    ip -= readShort(code, ip) - 2;
+                    break;
+                }
+                case OpCode.RETURN: return;
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void push(Object tag, double number) {
+        if (stackTop == tags.length) {
+            tags = Arrays.copyOf(tags, stackTop * 2);
+            numbers = Arrays.copyOf(numbers, stackTop * 2);
+        }
+        tags[stackTop] = tag;
+        numbers[stackTop] = number;
+        stackTop++;
+    }
+
+    // Replaces the top of the stack.
+    private void setBoolean(boolean value) {
+        tags[stackTop - 1] = value ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    // Same results as Interpreter.isTruthy() and isEqual(), without boxing.
+    private boolean isTruthy(int slot) {
+        Object tag = tags[slot];
+        if (tag == NUMBER) return true;
+        if (tag == null) return false;
+        if (tag instanceof Boolean) return (boolean)tag;
+        return true;
+    }
+
+    private boolean isEqual(int left, int right) {
+        Object leftTag = tags[left];
+        Object rightTag = tags[right];
+        if (leftTag == NUMBER && rightTag == NUMBER) {
+            // Double.equals() semantics: NaN equals itself, 0.0 and -0.0 differ.
+            return Double.doubleToLongBits(numbers[left]) == Double.doubleToLongBits(numbers[right]);
+        }
+        if (leftTag == NUMBER || rightTag == NUMBER) return false;
+        return Interpreter.isEqual(leftTag, rightTag);
+    }
+
+    private String stringify(int slot) {
+        if (tags[slot] == NUMBER) return Interpreter.stringify(numbers[slot]);
+        return Interpreter.stringify(tags[slot]);
+    }
+
+    private void checkNumberOperands(Chunk chunk, int ip) {
+        if (tags[stackTop - 2] == NUMBER && tags[stackTop - 1] == NUMBER) return;
+        throw new RuntimeError(chunk.line(ip - 1), "Operands must be numbers.");
+    }
+
+    // ip points just past the opcode, at the instruction's first operand.
+    private RuntimeError undefined(Chunk chunk, int ip, String name) {
+        return new RuntimeError(chunk.line(ip - 1), "Undefined variable '" + name + "'.");
+    }
+
+    private RuntimeError uninitialized(Chunk chunk, int ip, String name) {
+        return new RuntimeError(chunk.line(ip - 1), "Trying to access uninitialized variable '" + name + "'.");
+    }
+}
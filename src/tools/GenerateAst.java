@@ -13,24 +13,32 @@ public class GenerateAst {
         }
         String outputDir = args[0];
 
+        // Fields after a '|' aren't part of the syntax: they're filled in by
+        // the Resolver and while running, and aren't serialized.
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign     : Token name, Expr value",
+                "Assign     : Token name, Expr value" +
+                            " | int depth = -1, int slot, Environment.Global global",
                 "Binary     : Expr left, Token operator, Expr right",
                 "Grouping   : Expr expression",
                 "Literal    : Object value",
                 "Logical    : Expr left, Token operator, Expr right",
                 "Unary      : Token operator, Expr right",
                 "Ternary    : Expr condition, Expr trueExpr, Expr falseExpr",
-                "Variable   : Token name" // Accessing variables.
+                "Variable   : Token name" + // Accessing variables.
+                            " | int depth = -1, int slot, Environment.Global global"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Expression : Expr expression",
+                "Block      : List<Stmt> statements, int declarationCount" +
+                            " | int frameSize = -1",
+                // Statements like 'print 1;' have no token to take a line
+                // from, so they keep the line they start on.
+                "Expression : Expr expression, int line",
                 "If         : Expr condition, Stmt thenBranch," +
-                            " Stmt elseBranch",
-                "Print      : Expr expression",
-                "Var        : Token name, Expr initializer"
+                            " Stmt elseBranch, int line",
+                "Print      : Expr expression, int line",
+                "Var        : Token name, Expr initializer | int slot = -1",
+                "While      : Expr condition, Stmt body, int line | Jit.Loop loop"
         ));
     }
 
@@ -38,6 +46,7 @@ public class GenerateAst {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
 
+        writer.println("import java.io.IOException;");
         writer.println("import java.util.List;");
         writer.println("");
         writer.println("abstract class " + baseName + " {");
@@ -47,12 +56,14 @@ public class GenerateAst {
         writer.println("");
         writer.println("    abstract <R> R accept(Visitor<R> visitor);");
 
-        for (String type : types) {
+        defineReader(writer, baseName, types);
+
+        for (int tag = 0; tag < types.size(); tag++) {
             writer.println("");
             writer.println("");
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String className = types.get(tag).split(":")[0].trim();
+            String fields = types.get(tag).split(":")[1].trim();
+            defineType(writer, baseName, className, fields, tag);
         }
 
 
@@ -71,15 +82,62 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    // Nodes are written as their tag, the index of their type, followed by
+    // their fields in order.
+    private static void defineReader(PrintWriter writer, String baseName, List<String> types) {
+        writer.println("");
+        writer.println("    abstract void write(AstWriter out) throws IOException;");
+        writer.println("");
+        writer.println("    // Reads the fields of a node written by write(), after its tag.");
+        writer.println("    static " + baseName + " read(int tag, AstReader in) throws IOException {");
+        writer.println("        switch (tag) {");
+
+        for (int tag = 0; tag < types.size(); tag++) {
+            String className = types.get(tag).split(":")[0].trim();
+            String[] fields = syntax(types.get(tag).split(":")[1]).split("\\s*,\\s*");
+
+            StringBuilder arguments = new StringBuilder();
+            for (String field : fields) {
+                if (arguments.length() > 0) arguments.append(", ");
+                arguments.append("in.read").append(serializedName(field.split(" ")[0])).append("()");
+            }
+            writer.println("            case " + tag + ": return new " + className + "(" + arguments + ");");
+        }
+
+        writer.println("        }");
+        writer.println("        throw new IOException(\"Unknown " + baseName + " tag \" + tag + \".\");");
+        writer.println("    }");
+    }
+
+    private static String syntax(String fieldList) {
+        return fieldList.split("\\|")[0].trim();
+    }
+
+    // Name of the AstWriter and AstReader methods for a field type.
+    private static String serializedName(String type) {
+        switch (type) {
+            case "List<Stmt>": return "Statements";
+            case "Object": return "Value";
+            case "int": return "Int";
+            default: return type;
+        }
+    }
+
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, int tag) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
+        String[] state = fieldList.contains("|")
+                ? fieldList.split("\\|")[1].trim().split("\\s*,\\s*") : new String[0];
+        fieldList = syntax(fieldList);
         String[] fields = fieldList.split("\\s*,\\s*");
 
         // Class variables
         for (String field : fields) {
             writer.println("        final " + field.trim() + ";");
         }
+        for (String field : state) {
+            writer.println("        " + field + ";");
+        }
 
         writer.println("");
 
@@ -98,6 +156,16 @@ public class GenerateAst {
         writer.println("            return visitor.visit" + className + baseName + "(this);");
         writer.println("        }");
 
+        // Serialization
+        writer.println("");
+        writer.println("        void write(AstWriter out) throws IOException {");
+        writer.println("            out.writeTag(" + tag + ");");
+        for (String field : fields) {
+            String[] parts = field.split(" ");
+            writer.println("            out.write" + serializedName(parts[0]) + "(" + parts[1] + ");");
+        }
+        writer.println("        }");
+
 
         writer.println("    }");
     }